@@ -0,0 +1,246 @@
+package edu.uob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Frames of the binary protocol: a 4-byte big-endian payload length, then the payload. A request
+// carries one statement in UTF-8, which may span lines. A reply starts with a frame holding a
+// status byte; an error goes on with its message, a success with the column count and each
+// column's name and type. Commands that return no rows send zero columns and nothing more.
+// Otherwise the rows follow in frames of their own, each starting with its row count, with every
+// value written in its column's type after a byte saying whether it is NULL. A frame with a row
+// count of 0 ends the reply, and one with -1 ends it with an error message instead.
+// Replies are built from the rows and column types commands produce, never from their text.
+public class BinaryProtocol {
+    // Requests are single statements; replies are read field by field, so they have no limit
+    static final int MAX_REQUEST_BYTES = 8 * 1024 * 1024;
+    // Rows are sent once this many bytes of them are waiting
+    static final int ROW_FRAME_BYTES = 64 * 1024;
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+
+    public static class Reply {
+        public final boolean ok;
+        public final String message;
+        public final String[] columnNames;
+        public final ColumnType[] columnTypes;
+        // Long, Double, Boolean or String values; null for NULL
+        public final List<Object[]> rows;
+
+        Reply(boolean ok, String message, String[] columnNames, ColumnType[] columnTypes, List<Object[]> rows) {
+            this.ok = ok;
+            this.message = message;
+            this.columnNames = columnNames;
+            this.columnTypes = columnTypes;
+            this.rows = rows;
+        }
+    }
+
+    public static void writeRequest(DataOutputStream out, String statement) throws IOException {
+        byte[] payload = statement.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    // Where the frames of a reply go as they are made
+    interface FrameSink {
+        void frame(ByteBuffer frame) throws IOException;
+    }
+
+    // Turns what a command returns into reply frames, handing each on as soon as it is full, so a
+    // result is never held whole. Values are written in the type of their column as the table
+    // declares it, and columns without a type are sent as STRING. Call finish() after the last row.
+    static class ReplyWriter implements ResultSink {
+        private final FrameSink frames;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private String[] names;
+        private ColumnType[] types;
+        private int frameRows;
+        private boolean sent;
+
+        ReplyWriter(FrameSink frames) {
+            this.frames = frames;
+        }
+
+        @Override
+        public void message(String reply) throws IOException {
+            if (reply.startsWith("[OK]")) {
+                out.writeByte(STATUS_OK);
+                out.writeInt(0);
+            } else {
+                out.writeByte(STATUS_ERROR);
+                writeString(out, reply.startsWith("[ERROR]") ? reply.substring(7).trim() : reply);
+            }
+            sendFrame();
+        }
+
+        @Override
+        public void columns(String[] names, ColumnType[] types) throws IOException {
+            this.names = names.clone();
+            this.types = new ColumnType[types.length];
+            out.writeByte(STATUS_OK);
+            out.writeInt(names.length);
+            for (int column = 0; column < names.length; column++) {
+                this.types[column] = types[column] == null ? ColumnType.STRING : types[column];
+                writeString(out, names[column]);
+                out.writeByte(this.types[column].ordinal());
+            }
+            sendFrame();
+            // Filled in with the number of rows once the frame is sent
+            out.writeInt(0);
+        }
+
+        @Override
+        public void row(String[] values) throws IOException {
+            for (int column = 0; column < types.length; column++) {
+                // Rows read from a table file may leave off empty values at the end
+                String value = column < values.length ? values[column] : "";
+                ColumnType type = types[column];
+                if (value.equalsIgnoreCase("NULL") || (type != ColumnType.STRING && value.isEmpty())) {
+                    out.writeBoolean(true);
+                    continue;
+                }
+                out.writeBoolean(false);
+                switch (type) {
+                    case INTEGER -> out.writeLong(parseInteger(value, column));
+                    case FLOAT -> out.writeDouble(parseFloat(value, column));
+                    case BOOLEAN -> out.writeBoolean(value.equalsIgnoreCase("TRUE"));
+                    case STRING -> writeString(out, value);
+                }
+            }
+            frameRows++;
+            if (bytes.size() >= ROW_FRAME_BYTES) {
+                sendRows();
+                out.writeInt(0);
+            }
+        }
+
+        // Sends the rows still waiting and ends the result set
+        void finish() throws IOException {
+            if (names == null) return;
+            if (frameRows > 0) {
+                sendRows();
+                out.writeInt(0);
+            }
+            sendFrame();
+        }
+
+        // Ends the reply with an error, whatever was sent of it so far
+        void fail(String message) throws IOException {
+            bytes.reset();
+            if (!sent) {
+                message("[ERROR] " + message);
+                return;
+            }
+            if (names == null) return;
+            out.writeInt(-1);
+            writeString(out, message);
+            sendFrame();
+        }
+
+        private void sendRows() throws IOException {
+            byte[] payload = bytes.toByteArray();
+            ByteBuffer.wrap(payload).putInt(0, frameRows);
+            bytes.reset();
+            frameRows = 0;
+            send(payload);
+        }
+
+        private void sendFrame() throws IOException {
+            byte[] payload = bytes.toByteArray();
+            bytes.reset();
+            send(payload);
+        }
+
+        private void send(byte[] payload) throws IOException {
+            sent = true;
+            frames.frame(ByteBuffer.allocate(4 + payload.length).putInt(payload.length).put(payload).flip());
+        }
+
+        private long parseInteger(String value, int column) throws IOException {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw notOfType(value, column);
+            }
+        }
+
+        private double parseFloat(String value, int column) throws IOException {
+            double number = NodeQueryCondition.parseNumber(value, 0, value.length());
+            if (Double.isNaN(number)) {
+                throw notOfType(value, column);
+            }
+            return number;
+        }
+
+        private IOException notOfType(String value, int column) {
+            return new IOException("Value '" + value + "' of column '" + names[column] + "' is not " + types[column] + ".");
+        }
+    }
+
+    public static Reply readReply(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1) {
+            throw new IOException("Invalid reply length: " + length);
+        }
+        if (in.readByte() == STATUS_ERROR) {
+            return new Reply(false, readString(in), new String[0], new ColumnType[0], List.of());
+        }
+
+        int columnCount = in.readInt();
+        String[] names = new String[columnCount];
+        ColumnType[] types = new ColumnType[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            names[column] = readString(in);
+            types[column] = ColumnType.values()[in.readByte()];
+        }
+        List<Object[]> rows = new ArrayList<>();
+        if (columnCount == 0) {
+            return new Reply(true, null, names, types, rows);
+        }
+        while (true) {
+            length = in.readInt();
+            int rowCount = in.readInt();
+            if (length < 4) {
+                throw new IOException("Invalid reply length: " + length);
+            }
+            if (rowCount == 0) break;
+            if (rowCount < 0) {
+                return new Reply(false, readString(in), new String[0], new ColumnType[0], List.of());
+            }
+            for (int i = 0; i < rowCount; i++) {
+                Object[] row = new Object[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    if (in.readBoolean()) continue;
+                    row[column] = switch (types[column]) {
+                        case INTEGER -> in.readLong();
+                        case FLOAT -> in.readDouble();
+                        case BOOLEAN -> in.readBoolean();
+                        case STRING -> readString(in);
+                    };
+                }
+                rows.add(row);
+            }
+        }
+        return new Reply(true, null, names, types, rows);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] utf8 = new byte[in.readInt()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
@@ -2,6 +2,7 @@ package edu.uob;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class CmdAlter extends DBCmd {
@@ -10,29 +11,37 @@ public class CmdAlter extends DBCmd {
     private final String columnName;
     private final ReadWrite readWrite;
 
-    public CmdAlter(DBServer server, QueryParser parser) throws IOException {
-        super(server);
-        if (server.getDatabaseName() == null) {
+    public CmdAlter(DBSession session, QueryParser parser) throws IOException {
+        super(session);
+        if (databaseName == null) {
             throw new IOException("[ERROR] Database name is null!");
         }
 
         parser.parseAlter();
         this.tableName = parser.getTableName();
+        this.tableNames.add(tableName);
         this.alterType = parser.getAlterType();
         this.columnName = parser.getColumnNames().get(0);
         this.readWrite = new ReadWrite();
-        readWrite.setCurrentDatabase(server.getDatabaseName());
+        readWrite.setCurrentDatabase(databaseName);
+    }
+
+    @Override
+    boolean isWrite() {
+        return true;
     }
 
     @Override
     public String query(DBServer server) {
-        List<String> tableContent = readWrite.readTableFromFile(tableName);
-        if (tableContent.isEmpty()) {
+        Table table = readWrite.readTable(tableName);
+        if (table == null) {
             return "[ERROR] Table '" + tableName + "' does not exist.";
         }
 
-        String[] firstColumnList = tableContent.get(0).split("\t");
+        String[] firstColumnList = table.getHeader();
         List<String> updatedfirstColumnList = new ArrayList<>(List.of(firstColumnList));
+        List<ColumnType> updatedTypes = new ArrayList<>(Arrays.asList(table.getTypes()));
+        int droppedIndex = -1;
 
         if (columnName.equalsIgnoreCase("id")) {
             return "[ERROR] Cannot alter key column 'id'.";
@@ -43,35 +52,37 @@ public class CmdAlter extends DBCmd {
                 return "[ERROR] Column '" + columnName + "' already exists in table.";
             }
             updatedfirstColumnList.add(columnName);
+            updatedTypes.add(null);
 
         } else if (alterType.equalsIgnoreCase("DROP")) {
-            if (!updatedfirstColumnList.contains(columnName)) {
+            droppedIndex = updatedfirstColumnList.indexOf(columnName);
+            if (droppedIndex == -1) {
                 return "[ERROR] Column '" + columnName + "' does not exist in table.";
             }
-            updatedfirstColumnList.remove(columnName);
+            updatedfirstColumnList.remove(droppedIndex);
+            updatedTypes.remove(droppedIndex);
         }
 
-        List<String> updatedTable = new ArrayList<>();
-        updatedTable.add(String.join("\t", updatedfirstColumnList));
         int newColumnCount = updatedfirstColumnList.size();
+        List<String[]> updatedRows = new ArrayList<>(table.getRowCount());
 
-        for (int i = 1; i < tableContent.size(); i++) {
-            String[] rowValues = tableContent.get(i).split("\t");
-            List<String> newRow = new ArrayList<>(List.of(rowValues));
-
-            if (alterType.equalsIgnoreCase("ADD")) {
-                newRow.add("NULL");
-
-            } else if (alterType.equalsIgnoreCase("DROP")) {
-                int columnIndex = List.of(firstColumnList).indexOf(columnName);
-                newRow.remove(columnIndex);
+        for (String[] rowValues : table.getRows()) {
+            String[] newRow = new String[newColumnCount];
+            int next = 0;
+            for (int k = 0; k < rowValues.length && next < newColumnCount; k++) {
+                if (k != droppedIndex) {
+                    newRow[next++] = rowValues[k];
+                }
             }
-
-            while (newRow.size() < newColumnCount) {
-                newRow.add("NULL");
+            while (next < newColumnCount) {
+                newRow[next++] = "NULL";
             }
-            updatedTable.add(String.join("\t", newRow));
+            updatedRows.add(newRow);
         }
-        return readWrite.writeTableToDB(tableName, updatedTable);
+        String result = readWrite.writeTable(tableName,
+                new Table(updatedfirstColumnList.toArray(new String[0]), updatedTypes.toArray(new ColumnType[0]), updatedRows));
+        // The schema changed, so reload the table from disk on its next read
+        readWrite.evictTable(tableName);
+        return result;
     }
 }
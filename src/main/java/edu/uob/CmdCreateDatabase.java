@@ -6,8 +6,8 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 
 public class CmdCreateDatabase extends DBCmd {
-    public CmdCreateDatabase(DBServer server, String databaseName) {
-        super(server);
+    public CmdCreateDatabase(DBSession session, String databaseName) {
+        super(session);
         this.databaseName = databaseName;
     }
 
@@ -0,0 +1,38 @@
+package edu.uob;
+
+import java.io.IOException;
+
+public class CmdCreateIndex extends DBCmd {
+    private final String indexName;
+    private final String tableName;
+    private final String columnName;
+    private final ReadWrite readWrite;
+
+    public CmdCreateIndex(DBSession session, QueryParser parser) throws IOException {
+        super(session);
+        if (databaseName == null) {
+            throw new IOException("[ERROR] No database selected.");
+        }
+
+        parser.parseCreateIndex();
+        this.indexName = parser.getIndexName();
+        this.tableName = parser.getTableName();
+        this.tableNames.add(tableName);
+        this.columnName = parser.getColumnNames().get(0);
+        this.readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(databaseName);
+    }
+
+    @Override
+    boolean isWrite() {
+        return true;
+    }
+
+    @Override
+    public String query(DBServer server) {
+        if (!readWrite.tableExists(tableName)) {
+            return "[ERROR] Table '" + tableName + "' does not exist.";
+        }
+        return readWrite.createIndex(tableName, indexName, columnName);
+    }
+}
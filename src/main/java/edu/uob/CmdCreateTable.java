@@ -1,60 +1,62 @@
 package edu.uob;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 public class CmdCreateTable extends DBCmd {
     private final List<String> columnNames;
+    private final List<ColumnType> columnTypes;
     private final String tableName;
+    private final boolean columnar;
+    private final ReadWrite readWrite;
 
-    public CmdCreateTable(DBServer server, QueryParser parser) throws IOException {
-        super(server);
-        if (server.getDatabaseName() == null) {
+    public CmdCreateTable(DBSession session, QueryParser parser) throws IOException {
+        super(session);
+        if (databaseName == null) {
             throw new IOException("[ERROR] No database selected.");
         }
 
-        ReadWrite readWrite = new ReadWrite();
-        readWrite.setCurrentDatabase(server.getDatabaseName());
+        this.readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(databaseName);
 
         parser.parseCreateTable();
         this.columnNames = parser.getColumnNames();
+        this.columnTypes = parser.getColumnTypes();
         this.tableName = parser.getTableName();
-        columnNames.remove("id");
+        this.columnar = parser.isColumnar();
+        this.tableNames.add(tableName);
+        int idIndex = columnNames.indexOf("id");
+        if (idIndex != -1) {
+            columnNames.remove(idIndex);
+            columnTypes.remove(idIndex);
+        }
     }
 
     @Override
-    public String query(DBServer server) {
-        String tablePath = server.getStorageFolderPath() + File.separator + server.getDatabaseName() + File.separator + tableName + ".tab";
-        File tableFile = new File(tablePath);
+    boolean isWrite() {
+        return true;
+    }
 
-        if(server.doesTableExist(tableName) || tableFile.exists()) {
+    @Override
+    public String query(DBServer server) {
+        if (server.doesTableExist(databaseName, tableName) || readWrite.tableExists(tableName)) {
             return "[ERROR] Table " + tableName + " already exists.";
         }
 
-        try {
-
-            FileWriter writer = new FileWriter(tableFile);
-            List<String> updatedColumns = new ArrayList<>();
-
-            if (!columnNames.isEmpty()) {
-                updatedColumns.add("id");
-                updatedColumns.addAll(columnNames);
-            }
-
-            if (!updatedColumns.isEmpty()) {
-                writer.write(String.join("\t", updatedColumns) + "\n");
-            }
+        List<String> header = new ArrayList<>();
+        if (!columnNames.isEmpty()) {
+            List<String> names = new ArrayList<>(columnNames);
+            List<ColumnType> types = new ArrayList<>(columnTypes);
+            names.add(0, "id");
+            types.add(0, null);
+            header.addAll(List.of(Table.headerFieldsOf(names.toArray(new String[0]), types.toArray(new ColumnType[0]))));
+        }
 
-            writer.close();
-            server.addTable(tableName);
-            return "[OK]";
-        } catch (IOException e) {
-            return "[ERROR] Could not create table.";
+        String result = readWrite.createTable(tableName, header, columnar);
+        if (result.startsWith("[OK]")) {
+            server.addTable(databaseName, tableName);
         }
+        return result;
     }
-
 }
-
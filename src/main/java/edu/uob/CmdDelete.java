@@ -8,13 +8,14 @@ public class CmdDelete extends DBCmd {
     private NodeQuery conditionRoot;
     private final ReadWrite readWrite;
 
-    public CmdDelete(DBServer server, QueryParser parser) throws IOException {
-        super(server);
+    public CmdDelete(DBSession session, QueryParser parser) throws IOException {
+        super(session);
         parser.parseDelete();
 
         this.tableName = parser.getTableName();
+        this.tableNames.add(tableName);
         this.readWrite = new ReadWrite();
-        readWrite.setCurrentDatabase(server.getDatabaseName());
+        readWrite.setCurrentDatabase(databaseName);
 
         if (parser.hasWhereClause()) {
             NodeConditionParser nodeConditionParser = new NodeConditionParser(parser.getConditionTokens());
@@ -22,26 +23,47 @@ public class CmdDelete extends DBCmd {
         }
     }
 
+    @Override
+    boolean isReusable() {
+        return true;
+    }
+
+    @Override
+    DBCmd withParameters(Iterator<String> parameters) {
+        CmdDelete command = (CmdDelete) super.withParameters(parameters);
+        if (conditionRoot != null) {
+            command.conditionRoot = conditionRoot.withParameters(parameters);
+        }
+        return command;
+    }
+
+    @Override
+    boolean isWrite() {
+        return true;
+    }
+
     @Override
     public String query(DBServer server) {
-        List<String> tableContent = readWrite.readTableFromFile(tableName);
-        if (tableContent.isEmpty()) {
+        String[] firstColumnList = readWrite.readHeader(tableName);
+        if (firstColumnList == null) {
             return "[ERROR] Table '" + tableName + "' is empty.";
         }
+        NodeQuery condition = conditionRoot == null ? null : conditionRoot.bind(firstColumnList);
+        if (noRowsCanMatch(readWrite, tableName, condition)) {
+            return "[OK]";
+        }
 
-        String[] firstColumnList = tableContent.get(0).split("\t");
-        List<String> updatedTable = new ArrayList<>();
-        updatedTable.add(String.join("\t", firstColumnList));
-
-        for (int i = 1; i < tableContent.size(); i++) {
-            String[] rowValues = tableContent.get(i).split("\t");
+        Table table = readWrite.readTable(tableName);
+        List<String[]> remainingRows = new ArrayList<>(table.getRowCount());
 
-            boolean shouldDelete = (conditionRoot != null && conditionRoot.evaluate(rowValues, firstColumnList));
+        boolean[] matches = condition == null ? null : condition.evaluateAll(table);
+        for (int i = 0; i < table.getRowCount(); i++) {
+            boolean shouldDelete = (matches != null && matches[i]);
 
             if (!shouldDelete) {
-                updatedTable.add(String.join("\t", rowValues));
+                remainingRows.add(table.getRows().get(i));
             }
         }
-        return readWrite.writeTableToDB(tableName, updatedTable);
+        return readWrite.writeTable(tableName, new Table(table.getHeader(), table.getTypes(), remainingRows));
     }
 }
@@ -6,55 +6,67 @@ import java.io.IOException;
 public class CmdDrop extends DBCmd {
     private final String identifierType;
     private final String identifierName;
+    private final ReadWrite readWrite;
 
-    public CmdDrop(DBServer server, QueryParser parser) throws IOException {
-        super(server);
+    public CmdDrop(DBSession session, QueryParser parser) throws IOException {
+        super(session);
         parser.parseDrop();
 
         if (parser.isDropTable()) {
             this.identifierType = "TABLE";
             this.identifierName = parser.getTableName();
+            this.tableNames.add(identifierName);
+        } else if (parser.isDropIndex()) {
+            // The table is only known once the index file is found, so this locks the whole database
+            this.identifierType = "INDEX";
+            this.identifierName = parser.getIndexName();
+            if (databaseName == null) {
+                throw new IOException("[ERROR] No database selected.");
+            }
         } else {
             this.identifierType = "DATABASE";
             this.identifierName = parser.getDatabaseName();
+            this.databaseName = identifierName;
         }
 
-        ReadWrite readWrite = new ReadWrite();
-        readWrite.setCurrentDatabase(server.getDatabaseName());
+        this.readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(databaseName);
+    }
+
+    @Override
+    boolean isWrite() {
+        return true;
     }
 
     @Override
     public String query(DBServer server) {
         if (identifierType.equals("TABLE")) {
             return dropTable(server);
+        } else if (identifierType.equals("INDEX")) {
+            return readWrite.dropIndex(identifierName);
         } else {
             return dropDatabase(server);
         }
     }
 
     private String dropTable(DBServer server) {
-        String tablePath = server.getStorageFolderPath() + File.separator +
-                server.getDatabaseName() + File.separator +
-                identifierName + ".tab";
-
-        File tableFile = new File(tablePath);
+        if (!readWrite.tableExists(identifierName)) {
+            return "[ERROR] Table '" + identifierName + "' does not exist.";
+        }
 
-        if (tableFile.exists()) {
-            if (tableFile.delete()) {
-                server.removeTable(identifierName);
-                return "[OK]";
-            } else {
-                return "[ERROR] Could not delete table '" + identifierName + "'.";
-            }
+        String result = readWrite.deleteTable(identifierName);
+        if (result.startsWith("[OK]")) {
+            server.removeTable(databaseName, identifierName);
         }
-        return "[ERROR] Table '" + identifierName + "' does not exist.";
+        return result;
     }
 
     private String dropDatabase(DBServer server) {
         String dbPath = server.getStorageFolderPath() + File.separator + identifierName;
         File dbFolder = new File(dbPath);
 
-        File[] files = dbFolder.listFiles((dir, name) -> name.endsWith(".tab"));
+        readWrite.closeDatabase();
+        File[] files = dbFolder.listFiles(File::isFile);
         boolean allFilesDeleted = true;
 
         if (files != null) {
@@ -66,8 +78,8 @@ public class CmdDrop extends DBCmd {
         }
 
         if (allFilesDeleted && dbFolder.delete()) {
-            if (server.getDatabaseName().equals(identifierName)) {
-                server.setDatabaseName(null);
+            if (identifierName.equals(session.getDatabaseName())) {
+                session.setDatabaseName(null);
             }
             return "[OK]";
         }
@@ -2,37 +2,64 @@ package edu.uob;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 public class CmdInsert extends DBCmd {
-    private final List<String> values;
+    private List<List<String>> valueRows;
     private final String tableName;
     private final ReadWrite readWrite;
 
-    public CmdInsert(DBServer server, QueryParser parser) throws IOException {
-        super(server);
-        if (server.getDatabaseName() == null) {
+    public CmdInsert(DBSession session, QueryParser parser) throws IOException {
+        super(session);
+        if (databaseName == null) {
             throw new IOException("[ERROR] No database selected.");
         }
 
         parser.parseInsert();
-        this.values = parser.getValues();
+        this.valueRows = parser.getValueRows();
         this.tableName = parser.getTableName();
+        this.tableNames.add(tableName);
         this.readWrite = new ReadWrite();
-        readWrite.setCurrentDatabase(server.getDatabaseName());
+        readWrite.setCurrentDatabase(databaseName);
     }
 
+    @Override
+    boolean isReusable() {
+        return true;
+    }
+
+    @Override
+    DBCmd withParameters(Iterator<String> parameters) {
+        CmdInsert command = (CmdInsert) super.withParameters(parameters);
+        command.valueRows = new ArrayList<>(valueRows.size());
+        for (List<String> values : valueRows) {
+            command.valueRows.add(withParameters(values, parameters));
+        }
+        return command;
+    }
+
+    @Override
+    boolean isWrite() {
+        return true;
+    }
+
+    // All rows are checked before any is written, then they are written together
     @Override
     public String query(DBServer server) {
-        List<String> tableContent = readWrite.readTableFromFile(tableName);
-        int newId = server.getNextIdForTable(tableName);
+        if (!readWrite.tableExists(tableName)) {
+            return "[ERROR] Table '" + tableName + "' does not exist.";
+        }
+        String[] columnList = readWrite.readHeader(tableName);
+        boolean newHeader = columnList == null;
+        int newId = server.getNextIdForTable(databaseName, tableName);
 
-        if (tableContent.isEmpty()) {
+        if (newHeader) {
             List<String> headerRow = new ArrayList<>();
             headerRow.add("id");
 
             List<String> uniqueColumns = new ArrayList<>();
-            for (String value : values) {
+            for (String value : valueRows.get(0)) {
                 if (!value.equalsIgnoreCase("id")) {
                     if (uniqueColumns.contains(value)) {
                         return "[ERROR] Duplicate column name detected: " + value;
@@ -41,32 +68,77 @@ public class CmdInsert extends DBCmd {
                 }
             }
             headerRow.addAll(uniqueColumns);
-            tableContent.add(String.join("\t", headerRow));
+            columnList = headerRow.toArray(new String[0]);
         }
 
-        String[] columnList = tableContent.get(0).split("\t");
         int expectedColumnCount = columnList.length - 1;
-
-        if (values.size() != expectedColumnCount) {
-            return "[ERROR] Column count mismatch: Expected " + expectedColumnCount +
-                    ", but got " + values.size() + ".";
+        List<String[]> newRows = new ArrayList<>(valueRows.size());
+        for (List<String> values : valueRows) {
+            if (values.size() != expectedColumnCount) {
+                return "[ERROR] " + columnCountMismatch(expectedColumnCount, values.size());
+            }
+            String[] newRow = new String[values.size() + 1];
+            newRow[0] = String.valueOf(newId + newRows.size());
+            for (int i = 0; i < values.size(); i++) {
+                String value = values.get(i);
+                if (value.startsWith("'") && value.endsWith("'")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                newRow[i + 1] = value;
+            }
+            newRows.add(newRow);
         }
 
-        List<String> cleanedValues = new ArrayList<>();
-        for (String value : values) {
-            if (value.startsWith("'") && value.endsWith("'")) {
-                value = value.substring(1, value.length() - 1);
+        ColumnType[] types = newHeader ? new ColumnType[columnList.length] : readWrite.readColumnTypes(tableName).clone();
+        boolean typesInferred = false;
+        try {
+            // Untyped columns of an empty table take the type of the value inserted into them
+            if (!newHeader && !readWrite.hasRows(tableName)) {
+                typesInferred = inferTypes(types, valueRows.get(0));
+            }
+        } catch (IOException e) {
+            return "[ERROR] Could not read table: " + e.getMessage();
+        }
+        for (String[] newRow : newRows) {
+            String mismatch = typeMismatch(newRow, types, columnList);
+            if (mismatch != null) {
+                return "[ERROR] " + mismatch;
             }
-            cleanedValues.add(value);
         }
 
-        List<String> updatedRow = new ArrayList<>();
-        updatedRow.add(String.valueOf(newId));
-        updatedRow.addAll(cleanedValues);
-        tableContent.add(String.join("\t", updatedRow));
+        String result = newHeader || typesInferred
+                ? readWrite.writeTable(tableName, new Table(columnList, types, newRows))
+                : readWrite.appendRowsToTable(tableName, newRows);
+        if (result.startsWith("[OK]")) {
+            server.updateHighestIdForTable(databaseName, tableName, newId + newRows.size() - 1);
+        }
+        return result;
+    }
 
-        server.updateHighestIdForTable(tableName, newId);
+    static String columnCountMismatch(int expected, int found) {
+        return "Column count mismatch: Expected " + expected + ", but got " + found + ".";
+    }
 
-        return readWrite.writeTableToDB(tableName, tableContent);
+    // Sets the type of each untyped column from its literal in values, which leaves out the id.
+    // Returns whether any type was set.
+    static boolean inferTypes(ColumnType[] types, List<String> values) {
+        boolean inferred = false;
+        for (int i = 1; i < types.length; i++) {
+            if (types[i] == null) {
+                types[i] = ColumnType.inferFrom(values.get(i - 1));
+                inferred |= types[i] != null;
+            }
+        }
+        return inferred;
+    }
+
+    // Why a row (id first) does not fit the column types, or null if it does
+    static String typeMismatch(String[] row, ColumnType[] types, String[] columnList) {
+        for (int i = 1; i < row.length; i++) {
+            if (types[i] != null && !types[i].accepts(row[i])) {
+                return "Value '" + row[i] + "' does not match type " + types[i] + " of column '" + columnList[i] + "'.";
+            }
+        }
+        return null;
     }
 }
@@ -1,91 +1,203 @@
 package edu.uob;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class CmdJoin extends DBCmd {
+    // Probe sides with at least this many rows are split into ranges joined in parallel
+    private static int parallelThreshold = Integer.getInteger("db.join.parallelThreshold", 50_000);
+    private static final int MIN_RANGE_ROWS = 1024;
+
     private final String table1;
     private final String table2;
     private final String column1;
     private final String column2;
     private final ReadWrite readWrite;
 
-    public CmdJoin(DBServer server, QueryParser parser) throws IOException {
-        super(server);
+    public CmdJoin(DBSession session, QueryParser parser) throws IOException {
+        super(session);
         parser.parseJoin();
         this.table1 = parser.getTable1();
         this.table2 = parser.getTable2();
+        this.tableNames.add(table1);
+        this.tableNames.add(table2);
         this.column1 = parser.getColumn1();
         this.column2 = parser.getColumn2();
         this.readWrite = new ReadWrite();
-        this.readWrite.setCurrentDatabase(server.getDatabaseName());
+        this.readWrite.setCurrentDatabase(databaseName);
+    }
+
+    @Override
+    boolean isReusable() {
+        return true;
     }
 
     @Override
     public String query(DBServer server) {
-        List<String> table1Content = readWrite.readTableFromFile(table1);
-        List<String> table2Content = readWrite.readTableFromFile(table2);
-        if (table1Content.isEmpty() || table2Content.isEmpty()) {
-            return "[ERROR] One or both tables are empty.";
+        StringWriter result = new StringWriter();
+        try {
+            query(server, new TextResult(result, true));
+        } catch (IOException e) {
+            return "[ERROR] " + e.getMessage();
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void query(DBServer server, ResultSink out) throws IOException {
+        String[] firstColumnList1 = readWrite.readHeader(table1);
+        String[] firstColumnList2 = readWrite.readHeader(table2);
+        if (firstColumnList1 == null || firstColumnList2 == null) {
+            out.message("[ERROR] One or both tables are empty.");
+            return;
         }
 
-        String[] firstColumnList1 = table1Content.get(0).split("\t");
-        String[] firstColumnList2 = table2Content.get(0).split("\t");
         int index1 = findColumnIndex(firstColumnList1, column1);
         int index2 = findColumnIndex(firstColumnList2, column2);
 
         if (index1 == -1 || index2 == -1) {
-            return "[ERROR] One or both columns not found.";
+            out.message("[ERROR] One or both columns not found.");
+            return;
         }
 
-        StringBuilder result = new StringBuilder("[OK]\n");
-        result.append("id\t");
-        for (String s : firstColumnList1) {
+        ColumnType[] types1 = readWrite.readColumnTypes(table1);
+        ColumnType[] types2 = readWrite.readColumnTypes(table2);
+        List<String> names = new ArrayList<>();
+        List<ColumnType> types = new ArrayList<>();
+        names.add("id");
+        types.add(Table.typeOf(firstColumnList1, types1, 0));
+        for (int i = 0; i < firstColumnList1.length; i++) {
+            String s = firstColumnList1[i];
             if (!s.equalsIgnoreCase("id") && !s.equalsIgnoreCase(column1)) {
-                result.append(table1).append(".").append(s).append("\t");
+                names.add(table1 + "." + s);
+                types.add(types1[i]);
             }
         }
 
         for (int i = 0; i < firstColumnList2.length; i++) {
             if (i != index2) {
-                result.append(table2).append(".").append(firstColumnList2[i]).append("\t");
+                names.add(table2 + "." + firstColumnList2[i]);
+                types.add(Table.typeOf(firstColumnList2, types2, i));
             }
         }
-        result.append("\n");
-
-        for (int i = 1; i < table1Content.size(); i++) {
-            String[] row1 = table1Content.get(i).split("\t");
-
-            for (int j = 1; j < table2Content.size(); j++) {
-                String[] row2 = table2Content.get(j).split("\t");
-                String value1 = row1[index1].trim();
-                String value2 = row2[index2].trim();
 
+        String[] columnNames = names.toArray(new String[0]);
+        ColumnType[] columnTypes = types.toArray(new ColumnType[0]);
+        long buildSideBytes = Math.min(readWrite.getTableSize(table1), readWrite.getTableSize(table2));
+        // The sort-merge join reads both table files as text
+        if (JoinSortMerge.shouldUse(buildSideBytes) && !readWrite.isColumnar(table1) && !readWrite.isColumnar(table2)) {
+            sortMergeJoin(out, columnNames, columnTypes, index1, index2);
+        } else {
+            out.columns(columnNames, columnTypes);
+            hashJoin(out, index1, index2);
+        }
+    }
 
+    private void hashJoin(ResultSink out, int index1, int index2) throws IOException {
+        Table left = readWrite.readTable(table1);
+        Table right = readWrite.readTable(table2);
+        List<String[]> rows1 = left.getRows();
+        List<String[]> rows2 = right.getRows();
 
-                boolean match;
-                if (value1.matches("\\d+") && value2.matches("\\d+")) {
-                    match = Integer.parseInt(value1) == Integer.parseInt(value2);
-                } else {
-                    match = value1.equalsIgnoreCase(value2);
-                }
+        long[] matches;
+        if (rows2.size() <= rows1.size()) {
+            matches = matchPairs(new JoinHashTable(right, index2), left, index1, true);
+        } else {
+            // Probe with table2 but keep the output ordered by table1 rows, then table2 rows,
+            // which is the order of the packed pairs once sorted
+            matches = matchPairs(new JoinHashTable(left, index1), right, index2, false);
+            Arrays.parallelSort(matches);
+        }
+        for (long match : matches) {
+            out.row(joinRow(rows1.get((int) (match >>> 32)), index1, rows2.get((int) match), index2));
+        }
+    }
 
-                if (match) {
-                    result.append(row1[0]).append("\t");
-                    for (int k = 0; k < row1.length; k++) {
-                        if (k != 0 && k != index1) {
-                            result.append(row1[k]).append("\t");
-                        }
-                    }
-                    for (int k = 0; k < row2.length; k++) {
-                        if (k != index2) {
-                            result.append(row2[k]).append("\t");
-                        }
+    // Every match as row1 << 32 | row2, found by probing the hash table with each row of probe
+    private static long[] matchPairs(JoinHashTable hashTable, Table probe, int probeColumn, boolean probeIsTable1) {
+        List<long[]> rangeMatches = mapRanges(probe.getRowCount(), (from, to) -> {
+            long[] pairs = new long[16];
+            int count = 0;
+            for (int p = from; p < to; p++) {
+                for (int b = hashTable.first(probe, probeColumn, p); b >= 0; b = hashTable.next(b)) {
+                    if (count == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, count * 2);
                     }
-                    result.append("\n");
+                    pairs[count++] = probeIsTable1 ? (long) p << 32 | b : (long) b << 32 | p;
                 }
             }
+            return Arrays.copyOf(pairs, count);
+        });
+        long[] matches = new long[rangeMatches.stream().mapToInt(pairs -> pairs.length).sum()];
+        int filled = 0;
+        for (long[] pairs : rangeMatches) {
+            System.arraycopy(pairs, 0, matches, filled, pairs.length);
+            filled += pairs.length;
+        }
+        return matches;
+    }
+
+    public static void setParallelThreshold(int rows) {
+        parallelThreshold = rows;
+    }
+
+    // Splits rows 0 to rowCount - 1 into ranges, mapped on the common fork-join pool once there are
+    // enough rows. Each range builds its own result and the results come back in row order.
+    private static <T> List<T> mapRanges(int rowCount, RangeMapper<T> mapper) {
+        int rangeRows = rowCount < parallelThreshold ? Math.max(rowCount, 1)
+                : Math.max(MIN_RANGE_ROWS, rowCount / (ForkJoinPool.getCommonPoolParallelism() * 4));
+        int rangeCount = (rowCount + rangeRows - 1) / rangeRows;
+        IntStream ranges = IntStream.range(0, rangeCount);
+        return (rangeCount > 1 ? ranges.parallel() : ranges)
+                .mapToObj(r -> mapper.map(r * rangeRows, Math.min(rowCount, (r + 1) * rangeRows)))
+                .toList();
+    }
+
+    private interface RangeMapper<T> {
+        T map(int from, int to);
+    }
+
+    // Rows come out in the same order as from the hash join, by their order in table1, then in
+    // table2. They are sorted on disk, so they are never all held at once.
+    private void sortMergeJoin(ResultSink out, String[] columnNames, ColumnType[] columnTypes, int index1, int index2)
+            throws IOException {
+        try (JoinSortMerge sortMerge = new JoinSortMerge(readWrite.getDatabaseFolder())) {
+            try (BufferedReader reader1 = readWrite.openTableReader(table1);
+                 BufferedReader reader2 = readWrite.openTableReader(table2)) {
+                reader1.readLine();
+                reader2.readLine();
+                sortMerge.sort(reader1, index1, reader2, index2);
+            } catch (IOException e) {
+                out.message("[ERROR] Could not join tables: " + e.getMessage());
+                return;
+            }
+            out.columns(columnNames, columnTypes);
+            sortMerge.merge((row1, row2) -> out.row(joinRow(row1, index1, row2, index2)));
+        }
+    }
+
+    // The id of row1, then its other values but the join column, then every value of row2 but the join column
+    private static String[] joinRow(String[] row1, int index1, String[] row2, int index2) {
+        int length1 = row1.length - (index1 > 0 && index1 < row1.length ? 1 : 0);
+        int length2 = row2.length - (index2 < row2.length ? 1 : 0);
+        String[] joined = new String[length1 + length2];
+        int filled = 0;
+        for (int k = 0; k < row1.length; k++) {
+            if (k == 0 || k != index1) {
+                joined[filled++] = row1[k];
+            }
+        }
+        for (int k = 0; k < row2.length; k++) {
+            if (k != index2) {
+                joined[filled++] = row2[k];
+            }
         }
-        return result.toString().trim();
+        return joined;
     }
 }
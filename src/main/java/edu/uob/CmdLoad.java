@@ -0,0 +1,168 @@
+package edu.uob;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// LOAD DATA FROM 'file' INTO table: each line of the file holds the values of one row, without the
+// id, separated by tabs. The file is streamed in chunks; every chunk takes the next block of ids
+// and is appended to the table with a single write. Files are named relative to the import
+// directory, and clients cannot reach files outside it.
+public class CmdLoad extends DBCmd {
+    private static int chunkRows = Integer.getInteger("db.load.chunkRows", 100_000);
+    private static Path importDirectory = Paths.get(System.getProperty("db.load.directory", "imports"));
+
+    private final String fileName;
+    private final String tableName;
+    private final ReadWrite readWrite;
+
+    public CmdLoad(DBSession session, QueryParser parser) throws IOException {
+        super(session);
+        if (databaseName == null) {
+            throw new IOException("[ERROR] No database selected.");
+        }
+
+        parser.parseLoad();
+        this.fileName = parser.getFileName();
+        this.tableName = parser.getTableName();
+        this.tableNames.add(tableName);
+        this.readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(databaseName);
+    }
+
+    public static void setChunkRows(int rows) {
+        chunkRows = rows;
+    }
+
+    public static void setImportDirectory(Path directory) {
+        importDirectory = directory;
+    }
+
+    @Override
+    boolean isWrite() {
+        return true;
+    }
+
+    @Override
+    public String query(DBServer server) {
+        if (!readWrite.tableExists(tableName)) {
+            return "[ERROR] Table '" + tableName + "' does not exist.";
+        }
+        String[] columnList = readWrite.readHeader(tableName);
+        if (columnList == null) {
+            return "[ERROR] Table '" + tableName + "' has no columns to load into.";
+        }
+
+        Path filePath;
+        try {
+            filePath = resolveImportFile(fileName);
+        } catch (IOException e) {
+            return "[ERROR] " + e.getMessage();
+        }
+
+        ColumnType[] types;
+        boolean inferTypes;
+        int rowsPerChunk;
+        try {
+            types = readWrite.readColumnTypes(tableName).clone();
+            inferTypes = !readWrite.hasRows(tableName);
+            // Appending to a columnar table rewrites it, so it takes the whole file at once
+            rowsPerChunk = readWrite.isColumnar(tableName) ? Integer.MAX_VALUE : chunkRows;
+        } catch (IOException e) {
+            return "[ERROR] Could not read table: " + e.getMessage();
+        }
+
+        long loadedRows = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(Files.newInputStream(filePath), StandardCharsets.UTF_8), 1 << 20)) {
+            List<String[]> chunk = new ArrayList<>();
+            int firstId = server.getNextIdForTable(databaseName, tableName);
+            boolean typesInferred = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) continue;
+
+                String[] values = line.split("\t", -1);
+                if (values.length != columnList.length - 1) {
+                    return lineError(lineNumber, CmdInsert.columnCountMismatch(columnList.length - 1, values.length), loadedRows);
+                }
+                if (inferTypes) {
+                    typesInferred = CmdInsert.inferTypes(types, Arrays.asList(values));
+                    inferTypes = false;
+                }
+                String[] row = new String[columnList.length];
+                row[0] = String.valueOf(firstId + chunk.size());
+                System.arraycopy(values, 0, row, 1, values.length);
+                String mismatch = CmdInsert.typeMismatch(row, types, columnList);
+                if (mismatch != null) {
+                    return lineError(lineNumber, mismatch, loadedRows);
+                }
+
+                chunk.add(row);
+                if (chunk.size() == rowsPerChunk) {
+                    String result = writeChunk(server, chunk, columnList, types, typesInferred);
+                    if (!result.startsWith("[OK]")) return result;
+                    loadedRows += chunk.size();
+                    firstId += chunk.size();
+                    chunk = new ArrayList<>();
+                    typesInferred = false;
+                }
+            }
+            if (!chunk.isEmpty()) {
+                String result = writeChunk(server, chunk, columnList, types, typesInferred);
+                if (!result.startsWith("[OK]")) return result;
+            }
+        } catch (IOException e) {
+            return lineError(lineNumber, "Could not read '" + fileName + "': " + e.getMessage(), loadedRows);
+        }
+        return "[OK]";
+    }
+
+    // Symbolic links are followed before checking, so they cannot lead out of the directory either
+    private static Path resolveImportFile(String fileName) throws IOException {
+        Path name = Paths.get(fileName);
+        if (name.isAbsolute() || name.getRoot() != null) {
+            throw new IOException("Files to load must be named relative to the import directory.");
+        }
+        for (Path part : name) {
+            if (part.toString().equals("..")) {
+                throw new IOException("Files to load must be inside the import directory.");
+            }
+        }
+        Path directory = importDirectory.toAbsolutePath().normalize();
+        Path filePath = directory.resolve(name).normalize();
+        if (!Files.exists(filePath)) {
+            throw new IOException("File '" + fileName + "' does not exist in the import directory.");
+        }
+        if (!filePath.toRealPath().startsWith(directory.toRealPath())) {
+            throw new IOException("Files to load must be inside the import directory.");
+        }
+        return filePath;
+    }
+
+    // The first chunk writes the whole table when it has just given columns their types
+    private String writeChunk(DBServer server, List<String[]> chunk, String[] columnList, ColumnType[] types,
+                              boolean typesInferred) {
+        String result = typesInferred
+                ? readWrite.writeTable(tableName, new Table(columnList, types, chunk))
+                : readWrite.appendRowsToTable(tableName, chunk);
+        if (result.startsWith("[OK]")) {
+            server.updateHighestIdForTable(databaseName, tableName, Integer.parseInt(chunk.get(chunk.size() - 1)[0]));
+        }
+        return result;
+    }
+
+    // Chunks before the failing line have already been written
+    private String lineError(int lineNumber, String message, long loadedRows) {
+        return "[ERROR] Line " + lineNumber + ": " + message + " " + loadedRows + " rows were loaded before it.";
+    }
+}
@@ -0,0 +1,23 @@
+package edu.uob;
+
+import java.io.IOException;
+
+public class CmdPrepare extends DBCmd {
+    private final String statementName;
+    private final String statement;
+
+    public CmdPrepare(DBSession session, QueryParser parser) throws IOException {
+        super(session);
+        parser.parsePrepare();
+        this.statementName = parser.getStatementName();
+        this.statement = parser.getPreparedStatement();
+    }
+
+    // Parses the statement now, so mistakes are reported here and EXECUTE starts from a cached plan
+    @Override
+    public String query(DBServer server) throws IOException {
+        server.planCommand(statement, session);
+        session.setPreparedStatement(statementName, statement);
+        return "[OK]";
+    }
+}
@@ -1,6 +1,7 @@
 package edu.uob;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.*;
 
 public class CmdSelect extends DBCmd {
@@ -9,13 +10,14 @@ public class CmdSelect extends DBCmd {
     private NodeQuery conditionRoot;
     private final ReadWrite readWrite;
 
-    public CmdSelect(DBServer server, QueryParser parser) throws IOException {
-        super(server);
+    public CmdSelect(DBSession session, QueryParser parser) throws IOException {
+        super(session);
         parser.parseSelect();
         this.tableName = parser.getTableName();
+        this.tableNames.add(tableName);
         this.selectedColumns = parser.getColumnNames();
         this.readWrite = new ReadWrite();
-        this.readWrite.setCurrentDatabase(server.getDatabaseName());
+        this.readWrite.setCurrentDatabase(databaseName);
 
         if (parser.hasWhereClause()) {
             NodeConditionParser nodeConditionParser = new NodeConditionParser(parser.getConditionTokens());
@@ -24,32 +26,72 @@ public class CmdSelect extends DBCmd {
     }
 
     @Override
-    public String query(DBServer server) {
-        try {
-            List<String> tableContent = readWrite.readTableFromFile(tableName);
-            if (tableContent.isEmpty()) {
-                return "[ERROR] Table '" + tableName + "' is empty.";
-            }
+    boolean isReusable() {
+        return true;
+    }
 
-            String[] firstColumnList = tableContent.get(0).split("\t");
+    @Override
+    DBCmd withParameters(Iterator<String> parameters) {
+        CmdSelect command = (CmdSelect) super.withParameters(parameters);
+        if (conditionRoot != null) {
+            command.conditionRoot = conditionRoot.withParameters(parameters);
+        }
+        return command;
+    }
 
-            List<Integer> selectedColumnIndexes = getColumnIndexes(firstColumnList);
+    @Override
+    public String query(DBServer server) {
+        StringWriter result = new StringWriter();
+        try {
+            query(server, new TextResult(result));
+        } catch (IOException e) {
+            return "[ERROR] " + e.getMessage();
+        }
+        return result.toString();
+    }
 
-            StringBuilder result = new StringBuilder("[OK]\n");
-            result.append(formatfirstColumnList(firstColumnList, selectedColumnIndexes)).append("\n");
+    // Rows are handed on as they are read, so the table is not held in memory. The lock on the
+    // table is held until the last row has been handed on.
+    @Override
+    public void query(DBServer server, ResultSink out) throws IOException {
+        String[] firstColumnList = readWrite.readHeader(tableName);
+        if (firstColumnList == null) {
+            out.message("[ERROR] Table '" + tableName + "' is empty.");
+            return;
+        }
+        NodeQuery condition = conditionRoot == null ? null : conditionRoot.bind(firstColumnList);
 
-            for (int i = 1; i < tableContent.size(); i++) {
-                String[] rowValues = tableContent.get(i).split("\t");
+        List<Integer> selectedColumnIndexes;
+        try {
+            selectedColumnIndexes = getColumnIndexes(firstColumnList);
+        } catch (IOException e) {
+            out.message(e.getMessage());
+            return;
+        }
 
-                if (conditionRoot == null || conditionRoot.evaluate(rowValues, firstColumnList)) {
-                    result.append(formatRow(rowValues, selectedColumnIndexes)).append("\n");
-                }
-            }
+        boolean[] columnsUsed = new boolean[firstColumnList.length];
+        for (int index : selectedColumnIndexes) {
+            columnsUsed[index] = true;
+        }
+        if (condition != null) {
+            condition.markColumnsUsed(columnsUsed);
+        }
 
-            return result.toString().trim();
-        } catch (IOException e) {
-            return e.getMessage();
+        ColumnType[] columnTypes = readWrite.readColumnTypes(tableName);
+        String[] names = new String[selectedColumnIndexes.size()];
+        ColumnType[] types = new ColumnType[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = firstColumnList[selectedColumnIndexes.get(i)];
+            types[i] = Table.typeOf(firstColumnList, columnTypes, selectedColumnIndexes.get(i));
         }
+        out.columns(names, types);
+        String[] selectedValues = new String[names.length];
+        readWrite.scanMatchingRows(tableName, condition, columnsUsed, rowValues -> {
+            for (int i = 0; i < selectedValues.length; i++) {
+                selectedValues[i] = rowValues[selectedColumnIndexes.get(i)];
+            }
+            out.row(selectedValues);
+        });
     }
 
     private List<Integer> getColumnIndexes(String[] firstColumnList) throws IOException {
@@ -72,21 +114,4 @@ public class CmdSelect extends DBCmd {
         }
         return indexes;
     }
-
-
-    private String formatfirstColumnList(String[] firstColumnList, List<Integer> selectedIndexes) {
-        List<String> selectedHeaderValues = new ArrayList<>();
-        for (int index : selectedIndexes) {
-            selectedHeaderValues.add(firstColumnList[index]);
-        }
-        return String.join("\t", selectedHeaderValues);
-    }
-
-    private String formatRow(String[] rowValues, List<Integer> selectedIndexes) {
-        List<String> selectedValues = new ArrayList<>();
-        for (int index : selectedIndexes) {
-            selectedValues.add(rowValues[index]);
-        }
-        return String.join("\t", selectedValues);
-    }
 }
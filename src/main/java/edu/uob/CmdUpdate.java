@@ -10,15 +10,16 @@ public class CmdUpdate extends DBCmd {
     private NodeQuery conditionRoot;
     private ReadWrite readWrite;
 
-    public CmdUpdate(DBServer server, QueryParser parser) throws IOException {
-        super(server);
+    public CmdUpdate(DBSession session, QueryParser parser) throws IOException {
+        super(session);
         parser.parseUpdate();
 
         this.tableName = parser.getTableName();
+        this.tableNames.add(tableName);
         this.columnNames = parser.getColumnNames();
         this.values = parser.getValues();
         this.readWrite = new ReadWrite();
-        this.readWrite.setCurrentDatabase(server.getDatabaseName());
+        this.readWrite.setCurrentDatabase(databaseName);
 
         if (parser.hasWhereClause()) {
             NodeConditionParser nodeConditionParser = new NodeConditionParser(parser.getConditionTokens());
@@ -26,38 +27,73 @@ public class CmdUpdate extends DBCmd {
         }
     }
 
+    @Override
+    boolean isReusable() {
+        return true;
+    }
+
+    @Override
+    DBCmd withParameters(Iterator<String> parameters) {
+        CmdUpdate command = (CmdUpdate) super.withParameters(parameters);
+        command.values = withParameters(values, parameters);
+        if (conditionRoot != null) {
+            command.conditionRoot = conditionRoot.withParameters(parameters);
+        }
+        return command;
+    }
+
+    @Override
+    boolean isWrite() {
+        return true;
+    }
+
     @Override
     public String query(DBServer server) throws IOException {
-        List<String> tableContent = readWrite.readTableFromFile(tableName);
-        if (tableContent.isEmpty()) {
+        String[] firstColumnList = readWrite.readHeader(tableName);
+        if (firstColumnList == null) {
             return "[ERROR] Table '" + tableName + "' is empty.";
         }
-
-        String[] firstColumnList = tableContent.get(0).split("\t");
+        NodeQuery condition = conditionRoot == null ? null : conditionRoot.bind(firstColumnList);
         List<Integer> columnIndexes = getColumnIndexes(firstColumnList);
 
         if (columnIndexes == null) {
             return "[ERROR] One or more columns do not exist.";
         }
 
-        List<String> updatedTable = new ArrayList<>();
-        updatedTable.add(String.join("\t", firstColumnList));
+        if (noRowsCanMatch(readWrite, tableName, condition)) {
+            return "[OK]";
+        }
 
-        for (int i = 1; i < tableContent.size(); i++) {
-            String[] rowValues = tableContent.get(i).split("\t");
+        Table table = readWrite.readTable(tableName);
+        String[] newValues = new String[values.size()];
+        for (int j = 0; j < newValues.length; j++) {
+            String value = values.get(j);
+            boolean quoted = value.length() >= 2 && value.startsWith("'") && value.endsWith("'");
+            newValues[j] = quoted ? value.substring(1, value.length() - 1) : value;
+            ColumnType type = table.getTypes()[columnIndexes.get(j)];
+            if (type != null && !type.accepts(newValues[j])) {
+                return "[ERROR] Value '" + newValues[j] + "' does not match type " + type
+                        + " of column '" + firstColumnList[columnIndexes.get(j)] + "'.";
+            }
+        }
 
-            boolean shouldUpdate = (conditionRoot == null || conditionRoot.evaluate(rowValues, firstColumnList));
-            List<String> updatedRow = new ArrayList<>(Arrays.asList(rowValues));
+        boolean[] matches = condition == null ? null : condition.evaluateAll(table);
+        List<String[]> updatedRows = new ArrayList<>(table.getRowCount());
+        for (int i = 0; i < table.getRowCount(); i++) {
+            String[] rowValues = table.getRows().get(i);
+            boolean shouldUpdate = (matches == null || matches[i]);
 
             if (shouldUpdate) {
+                String[] updatedRow = rowValues.clone();
                 for (int j = 0; j < columnIndexes.size(); j++) {
-                    String noQuotesValue = values.get(j).replaceAll("^'(.*)'$", "$1");
-                    updatedRow.set(columnIndexes.get(j), noQuotesValue);
+                    updatedRow[columnIndexes.get(j)] = newValues[j];
                 }
+                updatedRows.add(updatedRow);
+            } else {
+                updatedRows.add(rowValues);
             }
-            updatedTable.add(String.join("\t", updatedRow));
         }
-        return readWrite.writeTableToDB(tableName, updatedTable);
+        return readWrite.writeTable(tableName, new Table(table.getHeader(), table.getTypes(), updatedRows));
     }
 
     private List<Integer> getColumnIndexes(String[] firstColumnList) {
@@ -1,13 +1,15 @@
 package edu.uob;
 
 public class CmdUse extends DBCmd {
-    public CmdUse(DBServer server) {
-        super(server);
+    public CmdUse(DBSession session, String databaseName) {
+        super(session);
+        this.databaseName = databaseName;
     }
 
     @Override
     public String query(DBServer server) {
-        server.setDatabaseName(databaseName);
+        session.setDatabaseName(databaseName);
+        server.loadTablesForDatabase(databaseName);
         return "[OK]";
     }
 }
@@ -0,0 +1,50 @@
+package edu.uob;
+
+// Declared in CREATE TABLE (name INTEGER, ...) or taken from the first row inserted into an
+// empty table, and kept in the table header as name:TYPE. NULL fits every type.
+public enum ColumnType {
+    INTEGER, FLOAT, BOOLEAN, STRING;
+
+    // Null if name is not a type
+    static ColumnType fromName(String name) {
+        for (ColumnType type : values()) {
+            if (type.name().equalsIgnoreCase(name)) return type;
+        }
+        return null;
+    }
+
+    // The narrowest type that fits a value as written in a query; quoted text is always a STRING.
+    // Null for NULL, which says nothing about the column.
+    static ColumnType inferFrom(String literal) {
+        if (literal.startsWith("'")) return STRING;
+        if (literal.equalsIgnoreCase("NULL")) return null;
+        for (ColumnType type : values()) {
+            if (type.accepts(literal)) return type;
+        }
+        return STRING;
+    }
+
+    // Whether an unquoted value can be stored in a column of this type
+    boolean accepts(String value) {
+        if (value.equalsIgnoreCase("NULL")) return true;
+        // Numbers are stored as written, so they are accepted exactly when comparisons and joins
+        // read them as numbers
+        return switch (this) {
+            case INTEGER -> isInteger(value);
+            case FLOAT -> !Double.isNaN(NodeQueryCondition.parseNumber(value, 0, value.length()));
+            case BOOLEAN -> value.equalsIgnoreCase("TRUE") || value.equalsIgnoreCase("FALSE");
+            case STRING -> true;
+        };
+    }
+
+    // Digits after at most one plus or minus sign, short enough to fit in a long
+    static boolean isInteger(String value) {
+        int start = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+        if (value.length() == start || value.length() - start > 18) return false;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,365 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary layout of a .tab file for tables created with CREATE TABLE ... COLUMNAR:
+// [magic][version][column count][column names][row count][offset of each column block], then per
+// column [kind][null bitmap, one bit per row][values]. A column whose values all print back exactly
+// as 8-byte longs or doubles is stored that way; other columns hold strings, dictionary-encoded when
+// values repeat. NULL values are only marked in the bitmap. Reading some columns only reads their blocks.
+public class ColumnarFormat {
+    private static final byte[] MAGIC = {0, 'C', 'O', 'L'};
+    private static final byte VERSION = 1;
+    private static final byte LONGS = 1;
+    private static final byte DOUBLES = 2;
+    private static final byte DICTIONARY = 3;
+    private static final byte STRINGS = 4;
+    private static final String NULL = "NULL";
+    private static final int BATCH_ROWS = 4096;
+
+    // A text table starts with its header line, which never contains a zero byte
+    public static boolean isColumnar(Path tablePath) throws IOException {
+        if (!Files.exists(tablePath)) return false;
+        try (FileChannel channel = FileChannel.open(tablePath, StandardOpenOption.READ)) {
+            ByteBuffer start = ByteBuffer.allocate(MAGIC.length);
+            while (start.hasRemaining() && channel.read(start, start.position()) > 0) { }
+            return Arrays.equals(start.array(), MAGIC);
+        }
+    }
+
+    // Returns the number of bytes written. Fields missing from a short row are stored as empty.
+    public static long write(OutputStream out, String[] header, List<String[]> rows) throws IOException {
+        List<byte[]> blocks = new ArrayList<>(header.length);
+        for (int column = 0; column < header.length; column++) {
+            blocks.add(encodeColumn(rows, column));
+        }
+
+        ByteArrayOutputStream start = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(start);
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        data.writeInt(header.length);
+        for (String name : header) {
+            data.writeUTF(name);
+        }
+        data.writeLong(rows.size());
+        long offset = start.size() + 8L * header.length;
+        for (byte[] block : blocks) {
+            data.writeLong(offset);
+            offset += block.length;
+        }
+
+        out.write(start.toByteArray());
+        for (byte[] block : blocks) {
+            out.write(block);
+        }
+        return offset;
+    }
+
+    private static byte[] encodeColumn(List<String[]> rows, int column) throws IOException {
+        int rowCount = rows.size();
+        byte[] nulls = new byte[(rowCount + 7) / 8];
+        boolean longs = true;
+        boolean doubles = true;
+        // Given up on once most values are distinct
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+
+        for (int row = 0; row < rowCount; row++) {
+            String value = valueOf(rows.get(row), column);
+            if (value.equals(NULL)) {
+                nulls[row >>> 3] |= (byte) (1 << (row & 7));
+                continue;
+            }
+            longs = longs && isExactLong(value);
+            doubles = doubles && isExactDouble(value);
+            if (dictionary != null) {
+                dictionary.putIfAbsent(value, dictionary.size());
+                if (dictionary.size() > rowCount / 2) dictionary = null;
+            }
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(block);
+        byte kind = longs ? LONGS : doubles ? DOUBLES : dictionary != null ? DICTIONARY : STRINGS;
+        out.writeByte(kind);
+        out.write(nulls);
+
+        if (kind == DICTIONARY) {
+            out.writeInt(dictionary.size());
+            for (String value : dictionary.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        List<byte[]> strings = kind == STRINGS ? new ArrayList<>(rowCount) : null;
+        for (int row = 0; row < rowCount; row++) {
+            boolean isNull = (nulls[row >>> 3] & (1 << (row & 7))) != 0;
+            String value = valueOf(rows.get(row), column);
+            switch (kind) {
+                case LONGS -> out.writeLong(isNull ? 0 : Long.parseLong(value));
+                case DOUBLES -> out.writeDouble(isNull ? 0 : Double.parseDouble(value));
+                case DICTIONARY -> out.writeInt(isNull ? 0 : dictionary.get(value));
+                default -> strings.add(isNull ? new byte[0] : value.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        if (kind == STRINGS) {
+            // Offsets into the string bytes, one more than there are rows
+            long offset = 0;
+            out.writeLong(offset);
+            for (byte[] bytes : strings) {
+                offset += bytes.length;
+                out.writeLong(offset);
+            }
+            for (byte[] bytes : strings) {
+                out.write(bytes);
+            }
+        }
+        out.flush();
+        return block.toByteArray();
+    }
+
+    private static String valueOf(String[] row, int column) {
+        return column < row.length ? row[column] : "";
+    }
+
+    private static boolean isExactLong(String value) {
+        try {
+            return Long.toString(Long.parseLong(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isExactDouble(String value) {
+        try {
+            return Double.toString(Double.parseDouble(value)).equals(value);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    // Stored header fields (names with their types); null for a table created without columns
+    public static String[] readHeader(Path tablePath) throws IOException {
+        try (OpenFile file = new OpenFile(tablePath)) {
+            return file.header.length == 0 ? null : file.header;
+        }
+    }
+
+    // Null for a table created without columns
+    public static Table read(Path tablePath) throws IOException {
+        String[] header = readHeader(tablePath);
+        if (header == null) return null;
+
+        List<String[]> rows = new ArrayList<>();
+        scan(tablePath, null, row -> rows.add(row.clone()));
+        return new Table(Table.namesOf(header), Table.typesOf(header), rows);
+    }
+
+    public static long readRowCount(Path tablePath) throws IOException {
+        try (OpenFile file = new OpenFile(tablePath)) {
+            return file.rowCount;
+        }
+    }
+
+    // Visits every row, decoding only the columns in columnsUsed (null for all); other fields are
+    // null. The array is reused for the next row, so visitors must not keep it.
+    public static void scan(Path tablePath, boolean[] columnsUsed, ReadWrite.RowVisitor visitor) throws IOException {
+        try (OpenFile file = new OpenFile(tablePath)) {
+            int columnCount = file.header.length;
+            Column[] columns = new Column[columnCount];
+            String[][] batch = new String[columnCount][];
+            for (int column = 0; column < columnCount; column++) {
+                if (columnsUsed == null || (column < columnsUsed.length && columnsUsed[column])) {
+                    columns[column] = file.column(column);
+                    batch[column] = new String[BATCH_ROWS];
+                }
+            }
+
+            String[] row = new String[columnCount];
+            for (long firstRow = 0; firstRow < file.rowCount; firstRow += BATCH_ROWS) {
+                int count = (int) Math.min(BATCH_ROWS, file.rowCount - firstRow);
+                for (int column = 0; column < columnCount; column++) {
+                    if (columns[column] != null) {
+                        columns[column].read(file, firstRow, count, batch[column]);
+                    }
+                }
+                for (int i = 0; i < count; i++) {
+                    for (int column = 0; column < columnCount; column++) {
+                        row[column] = columns[column] == null ? null : batch[column][i];
+                    }
+                    visitor.visit(row);
+                }
+            }
+        }
+    }
+
+    // Rows at the given row numbers, in that order; numbers past the end are skipped
+    public static List<String[]> readRows(Path tablePath, List<Long> rowNumbers) throws IOException {
+        List<String[]> rows = new ArrayList<>(rowNumbers.size());
+        try (OpenFile file = new OpenFile(tablePath)) {
+            int columnCount = file.header.length;
+            Column[] columns = new Column[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                columns[column] = file.column(column);
+            }
+            String[] value = new String[1];
+            for (long rowNumber : rowNumbers) {
+                if (rowNumber < 0 || rowNumber >= file.rowCount) continue;
+                String[] row = new String[columnCount];
+                for (int column = 0; column < columnCount; column++) {
+                    columns[column].read(file, rowNumber, 1, value);
+                    row[column] = value[0];
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    // (id, row number) pairs for the id index, which stores row numbers as the positions of rows
+    public static List<long[]> readIdEntries(Path tablePath) throws IOException {
+        List<long[]> entries = new ArrayList<>();
+        long[] rowNumber = {0};
+        scan(tablePath, new boolean[] {true}, row -> {
+            long id = IdIndex.parseId(row[0]);
+            if (id >= 0) {
+                entries.add(new long[] {id, rowNumber[0]});
+            }
+            rowNumber[0]++;
+        });
+        return entries;
+    }
+
+    private static class OpenFile implements Closeable {
+        final FileChannel channel;
+        final String[] header;
+        final long rowCount;
+        final long[] blockOffsets;
+
+        OpenFile(Path tablePath) throws IOException {
+            channel = FileChannel.open(tablePath, StandardOpenOption.READ);
+            try {
+                // Not closed, as that would close the channel
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+                byte[] magic = new byte[MAGIC.length];
+                in.readFully(magic);
+                if (!Arrays.equals(magic, MAGIC) || in.readByte() != VERSION) {
+                    throw new IOException("Not a columnar table file: " + tablePath.getFileName());
+                }
+                header = new String[in.readInt()];
+                for (int i = 0; i < header.length; i++) {
+                    header[i] = in.readUTF();
+                }
+                rowCount = in.readLong();
+                blockOffsets = new long[header.length];
+                for (int i = 0; i < header.length; i++) {
+                    blockOffsets[i] = in.readLong();
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        Column column(int column) throws IOException {
+            return new Column(this, blockOffsets[column]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class Column {
+        final byte kind;
+        final long nullsStart;
+        final long valuesStart;
+        final String[] dictionary;
+
+        Column(OpenFile file, long blockOffset) throws IOException {
+            kind = readAt(file.channel, blockOffset, 1).get();
+            nullsStart = blockOffset + 1;
+            long start = nullsStart + (file.rowCount + 7) / 8;
+            if (kind == DICTIONARY) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Channels.newInputStream(file.channel.position(start))));
+                dictionary = new String[in.readInt()];
+                start += 4;
+                for (int i = 0; i < dictionary.length; i++) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+                    start += 4 + bytes.length;
+                }
+            } else {
+                dictionary = null;
+            }
+            valuesStart = start;
+        }
+
+        // Decodes rows firstRow to firstRow + count - 1 into values
+        void read(OpenFile file, long firstRow, int count, String[] values) throws IOException {
+            long firstNullByte = firstRow / 8;
+            ByteBuffer nulls = readAt(file.channel, nullsStart + firstNullByte,
+                    (int) ((firstRow + count - 1) / 8 - firstNullByte + 1));
+            int width = kind == DICTIONARY ? 4 : 8;
+            ByteBuffer fixed = readAt(file.channel, valuesStart + firstRow * width,
+                    kind == STRINGS ? (count + 1) * 8 : count * width);
+            ByteBuffer strings = null;
+            if (kind == STRINGS) {
+                long stringsStart = valuesStart + (file.rowCount + 1) * 8;
+                strings = readAt(file.channel, stringsStart + fixed.getLong(0),
+                        (int) (fixed.getLong(count * 8) - fixed.getLong(0)));
+            }
+
+            for (int i = 0; i < count; i++) {
+                long row = firstRow + i;
+                if ((nulls.get((int) (row / 8 - firstNullByte)) & (1 << (row & 7))) != 0) {
+                    values[i] = NULL;
+                    continue;
+                }
+                values[i] = switch (kind) {
+                    case LONGS -> Long.toString(fixed.getLong(i * 8));
+                    case DOUBLES -> Double.toString(fixed.getDouble(i * 8));
+                    case DICTIONARY -> dictionary[fixed.getInt(i * 4)];
+                    default -> {
+                        int start = (int) (fixed.getLong(i * 8) - fixed.getLong(0));
+                        int end = (int) (fixed.getLong((i + 1) * 8) - fixed.getLong(0));
+                        yield new String(strings.array(), start, end - start, StandardCharsets.UTF_8);
+                    }
+                };
+            }
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of table file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
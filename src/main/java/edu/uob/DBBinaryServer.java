@@ -0,0 +1,250 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Serves the binary protocol (see BinaryProtocol) next to the text protocol of DBServer. One
+// selector thread accepts connections and moves frames in and out without blocking; statements
+// run on a worker pool. A connection's statements run one at a time in the order they arrived,
+// so clients can send many frames before reading any replies. Once a connection has more than
+// db.binary.maxQueued statements and unread reply frames, it is not read from until the client
+// catches up, and a statement's worker waits before adding more frames. Results are buffered the
+// way the text protocol buffers them, so a worker never waits on a client while holding locks.
+public class DBBinaryServer {
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static int maxQueued = Integer.getInteger("db.binary.maxQueued", 32);
+
+    private final DBServer server;
+    private final ExecutorService workers;
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean stopped;
+
+    public DBBinaryServer(DBServer server, int workerThreads) {
+        this.server = server;
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    public static void setMaxQueued(int statements) {
+        maxQueued = statements;
+    }
+
+    public void blockingListenOn(int portNumber) throws IOException {
+        bind(portNumber);
+        System.out.println("Binary protocol listening on port " + portNumber);
+        serve();
+    }
+
+    // Returns the port listened on, which is chosen by the system when portNumber is 0
+    public int bind(int portNumber) throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(portNumber));
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public void serve() throws IOException {
+        try {
+            while (!Thread.interrupted() && !stopped) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            ((Connection) key.attachment()).write();
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Non-fatal IO error: " + e.getMessage());
+                        if (key.attachment() instanceof Connection connection) {
+                            connection.close();
+                        } else {
+                            key.cancel();
+                            key.channel().close();
+                        }
+                    }
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    // Makes serve() close every connection and return
+    public void stop() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    private void close() throws IOException {
+        workers.shutdownNow();
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final DBSession session = new DBSession();
+        private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+        // Guarded by this connection
+        private final Queue<String> statements = new ArrayDeque<>();
+        private final Queue<ByteBuffer> replies = new ArrayDeque<>();
+        private boolean running;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        // Called on the selector thread
+        void read() throws IOException {
+            // A full buffer holds the start of a frame larger than it, so it grows as that frame arrives
+            if (!input.hasRemaining()) {
+                int capacity = Math.min(input.capacity() * 2, 4 + BinaryProtocol.MAX_REQUEST_BYTES);
+                input = ByteBuffer.allocate(capacity).put(input.flip());
+            }
+            if (channel.read(input) < 0) {
+                close();
+                return;
+            }
+            takeFrames();
+        }
+
+        // Queues the complete frames in the input buffer, as long as not too many are queued already
+        private synchronized void takeFrames() throws IOException {
+            input.flip();
+            while (input.remaining() >= 4 && queued() < maxQueued) {
+                int length = input.getInt(input.position());
+                if (length < 0 || length > BinaryProtocol.MAX_REQUEST_BYTES) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                if (input.remaining() < 4 + length) break;
+                input.position(input.position() + 4);
+                byte[] payload = new byte[length];
+                input.get(payload);
+                queue(new String(payload, StandardCharsets.UTF_8));
+            }
+            input.compact();
+            if (queued() < maxQueued) {
+                key.interestOpsOr(SelectionKey.OP_READ);
+            } else {
+                key.interestOpsAnd(~SelectionKey.OP_READ);
+            }
+        }
+
+        private synchronized int queued() {
+            return statements.size() + replies.size() + (running ? 1 : 0);
+        }
+
+        private synchronized void queue(String statement) {
+            statements.add(statement);
+            if (!running) {
+                runNext();
+            }
+        }
+
+        private synchronized void runNext() {
+            String statement = statements.poll();
+            running = statement != null;
+            if (!running) return;
+
+            workers.execute(() -> {
+                BinaryProtocol.ReplyWriter reply = new BinaryProtocol.ReplyWriter(this::send);
+                try (ResultBuffer result = new ResultBuffer()) {
+                    server.handleCommand(statement, session, result);
+                    result.replayTo(reply);
+                    reply.finish();
+                } catch (IOException | RuntimeException e) {
+                    try {
+                        reply.fail(String.valueOf(e.getMessage()));
+                    } catch (IOException closed) {
+                        // The client has gone, so there is no one to tell
+                    }
+                }
+                finished();
+            });
+        }
+
+        // Called by a worker for each frame of a reply; waits while the client is behind
+        private synchronized void send(ByteBuffer frame) throws IOException {
+            while (replies.size() >= maxQueued && key.isValid()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while sending a reply");
+                }
+            }
+            if (!key.isValid()) {
+                throw new IOException("Connection closed");
+            }
+            replies.add(frame);
+            key.interestOpsOr(SelectionKey.OP_WRITE);
+            selector.wakeup();
+        }
+
+        // The selector thread then writes what is left and takes the next frames once it may
+        private synchronized void finished() {
+            runNext();
+            if (key.isValid()) {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+                selector.wakeup();
+            }
+        }
+
+        synchronized void close() throws IOException {
+            key.cancel();
+            channel.close();
+            notifyAll();
+        }
+
+        // Called on the selector thread: writes as many waiting replies as the socket takes, then
+        // goes back to the frames left waiting if the client has caught up
+        synchronized void write() throws IOException {
+            while (!replies.isEmpty()) {
+                ByteBuffer reply = replies.peek();
+                channel.write(reply);
+                if (reply.hasRemaining()) return;
+                replies.poll();
+                notifyAll();
+            }
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            if ((key.interestOps() & SelectionKey.OP_READ) == 0) {
+                takeFrames();
+            }
+        }
+    }
+}
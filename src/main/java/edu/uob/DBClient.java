@@ -1,38 +1,210 @@
 package edu.uob;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 public class DBClient {
 
     private static final char END_OF_TRANSMISSION = 4;
 
+    private final BlockingQueue<Optional<String>> replies;
+    // Only one of these is set, for the protocol the client talks
+    private final BufferedWriter socketWriter;
+    private final DataOutputStream socketOutput;
+    // Whether the lines sent last were inside BEGIN BATCH and END BATCH
+    private boolean insideBatch;
+    // Binary protocol: the lines read so far of a statement that has not reached its semicolon
+    private final StringBuilder statement = new StringBuilder();
+
+    // Pass --binary to use the binary protocol on port 8889 instead of the text one
     public static void main(String[] args) throws IOException {
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+        if (Arrays.asList(args).contains("--binary")) {
+            Socket socket = new Socket("localhost", Integer.getInteger("db.binaryPort", 8889));
+            DBClient client = forBinaryProtocol(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            while (!Thread.interrupted()) {
+                client.handleNextBinaryCommand(input, System.out);
+            }
+            return;
+        }
         Socket socket = new Socket("localhost", 8888);
-        BufferedReader socketReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        BufferedWriter socketWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        DBClient client = forTextProtocol(new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
         while (!Thread.interrupted()) {
-            handleNextCommand(input, socketReader, socketWriter);
+            client.handleNextCommand(input, System.out);
         }
     }
 
-    private static void handleNextCommand(BufferedReader commandLine, BufferedReader socketReader, BufferedWriter socketWriter) throws IOException {
-        System.out.print("SQL:> ");
+    private DBClient(BlockingQueue<Optional<String>> replies, BufferedWriter socketWriter, DataOutputStream socketOutput) {
+        this.replies = replies;
+        this.socketWriter = socketWriter;
+        this.socketOutput = socketOutput;
+    }
+
+    static DBClient forTextProtocol(BufferedReader socketReader, BufferedWriter socketWriter) {
+        return new DBClient(readRepliesInBackground(() -> readTextReply(socketReader)), socketWriter, null);
+    }
+
+    static DBClient forBinaryProtocol(DataInputStream socketInput, DataOutputStream socketOutput) {
+        return new DBClient(readRepliesInBackground(() -> readBinaryReply(socketInput)), null, socketOutput);
+    }
+
+    interface ReplySource {
+        // null at the end of the stream
+        String next() throws IOException;
+    }
+
+    // Replies are read on their own thread as soon as they arrive, so a server blocked writing
+    // replies is never left waiting on a client that is still writing statements. An empty
+    // value follows the last reply once the connection is closed.
+    private static BlockingQueue<Optional<String>> readRepliesInBackground(ReplySource source) {
+        BlockingQueue<Optional<String>> replies = new LinkedBlockingQueue<>();
+        Thread reader = new Thread(() -> {
+            try {
+                for (String reply = source.next(); reply != null; reply = source.next()) {
+                    replies.add(Optional.of(reply));
+                }
+            } catch (IOException e) {
+                // Treated like the end of the stream
+            } finally {
+                replies.add(Optional.empty());
+            }
+        }, "replies");
+        reader.setDaemon(true);
+        reader.start();
+        return replies;
+    }
+
+    // Lines that are already waiting, such as a pasted or piped script, are sent together without
+    // waiting for replies, then the replies are printed in order. Lines inside BEGIN BATCH and
+    // END BATCH share the one reply sent for END BATCH.
+    void handleNextCommand(BufferedReader commandLine, PrintStream out) throws IOException {
+        out.print("SQL:> ");
         String command = commandLine.readLine();
-        socketWriter.write(command + "\n");
+        if (command == null) {
+            throw new IOException("End of input");
+        }
+        int expected = 0;
+        do {
+            socketWriter.write(command + "\n");
+            if (insideBatch) {
+                insideBatch = !DBServer.isBatchMarker(command, "END");
+                expected += insideBatch ? 0 : 1;
+            } else {
+                insideBatch = DBServer.isBatchMarker(command, "BEGIN");
+                expected += insideBatch ? 0 : 1;
+            }
+        } while (commandLine.ready() && (command = commandLine.readLine()) != null);
         socketWriter.flush();
+
+        printReplies(expected, out);
+    }
+
+    // The lines of one reply up to the EOT line. The results of a batch are printed with a blank
+    // line between statements.
+    private static String readTextReply(BufferedReader socketReader) throws IOException {
         String incomingMessage = socketReader.readLine();
-        if (incomingMessage == null) {
-            throw new IOException("Server disconnected (end-of-stream)");
-        }
+        if (incomingMessage == null) return null;
+        StringJoiner reply = new StringJoiner("\n");
         while (incomingMessage != null && !incomingMessage.contains("" + END_OF_TRANSMISSION + "")) {
-            System.out.println(incomingMessage);
+            reply.add(incomingMessage.equals(DBServer.STATEMENT_SEPARATOR) ? "" : incomingMessage);
             incomingMessage = socketReader.readLine();
         }
+        return reply.toString();
+    }
+
+    // Like handleNextCommand, but lines are gathered until a statement ends with a semicolon, and
+    // each statement is sent as one frame with a reply of its own. A statement left unfinished is
+    // carried on by the lines of the next call.
+    void handleNextBinaryCommand(BufferedReader commandLine, PrintStream out) throws IOException {
+        out.print(statement.length() == 0 ? "SQL:> " : "  -> ");
+        String command = commandLine.readLine();
+        if (command == null) {
+            throw new IOException("End of input");
+        }
+        int expected = 0;
+        do {
+            if (statement.length() == 0 && command.isBlank()) continue;
+            statement.append(statement.length() == 0 ? "" : "\n").append(command);
+            if (isEndOfStatement(statement)) {
+                BinaryProtocol.writeRequest(socketOutput, statement.toString());
+                statement.setLength(0);
+                expected++;
+            }
+        } while (commandLine.ready() && (command = commandLine.readLine()) != null);
+        socketOutput.flush();
+
+        printReplies(expected, out);
+    }
+
+    // Whether text ends with a semicolon that is not inside a quoted string
+    static boolean isEndOfStatement(CharSequence text) {
+        boolean quoted = false;
+        int last = -1;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            if (c > ' ') {
+                last = i;
+            }
+        }
+        return !quoted && last >= 0 && text.charAt(last) == ';';
+    }
+
+    private static String readBinaryReply(DataInputStream socketInput) throws IOException {
+        BinaryProtocol.Reply reply = BinaryProtocol.readReply(socketInput);
+        if (!reply.ok) {
+            return "[ERROR] " + reply.message;
+        }
+        StringJoiner lines = new StringJoiner("\n");
+        lines.add("[OK]");
+        if (reply.columnNames.length == 0) return lines.toString();
+        StringJoiner header = new StringJoiner("\t");
+        for (int column = 0; column < reply.columnNames.length; column++) {
+            header.add(reply.columnNames[column] + ":" + reply.columnTypes[column]);
+        }
+        lines.add(header.toString());
+        for (Object[] row : reply.rows) {
+            StringJoiner line = new StringJoiner("\t");
+            for (Object value : row) {
+                line.add(value == null ? "NULL" : value.toString());
+            }
+            lines.add(line.toString());
+        }
+        return lines.toString();
+    }
+
+    private void printReplies(int expected, PrintStream out) throws IOException {
+        for (int i = 0; i < expected; i++) {
+            Optional<String> reply;
+            try {
+                reply = replies.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a reply");
+            }
+            if (reply.isEmpty()) {
+                replies.add(reply);
+                throw new IOException("Server disconnected (end-of-stream)");
+            }
+            out.println(reply.get());
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,27 +1,84 @@
 package edu.uob;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
-public abstract class DBCmd {
+public abstract class DBCmd implements Cloneable {
     String databaseName;
+    final DBSession session;
     List<String> tableNames;
     List<String> columnNames;
     public int id = 1;
 
-    public DBCmd(DBServer server) {
-        this.databaseName = server.getDatabaseName();
+    public DBCmd(DBSession session) {
+        this.session = session;
+        this.databaseName = session.getDatabaseName();
         this.tableNames = new ArrayList<>();
         this.columnNames = new ArrayList<>();
     }
 
     public abstract String query(DBServer server) throws IOException;
 
+    // Commands that return rows override this to hand them over as they are produced
+    public void query(DBServer server, ResultSink out) throws IOException {
+        String result;
+        try {
+            result = query(server);
+        } catch (IOException e) {
+            result = "[ERROR] " + e.getMessage();
+        }
+        out.message(result);
+    }
+
+    // Whether the tables in tableNames are locked exclusively; with no tables, the whole database is
+    boolean isWrite() {
+        return false;
+    }
+
     @Override
     protected Object clone() throws CloneNotSupportedException {
         return super.clone();
     }
 
+    // Whether the parsed command can be cached and run again by any session on the same database
+    boolean isReusable() {
+        return false;
+    }
+
+    // A copy to execute, with each ? placeholder replaced by the next parameter in statement order.
+    // Throws NoSuchElementException when there are fewer parameters than placeholders.
+    DBCmd withParameters(Iterator<String> parameters) {
+        try {
+            return (DBCmd) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static List<String> withParameters(List<String> values, Iterator<String> parameters) {
+        List<String> filled = new ArrayList<>(values.size());
+        for (String value : values) {
+            filled.add(value.equals("?") ? parameters.next() : value);
+        }
+        return filled;
+    }
+
+    // For rewriting commands: true when an index already shows that no row matches,
+    // so the table does not need to be loaded and rewritten
+    boolean noRowsCanMatch(ReadWrite readWrite, String tableName, NodeQuery condition) {
+        List<String[]> candidates = readWrite.readIndexedRows(tableName, condition);
+        if (candidates == null) {
+            return false;
+        }
+        for (String[] row : candidates) {
+            if (condition.evaluate(row)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     int findColumnIndex(String[] firstColumnList, String columnName) {
         for (int i = 0; i < firstColumnList.length; i++) {
             if (firstColumnList[i].equalsIgnoreCase(columnName)) {
@@ -6,16 +6,38 @@ import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class DBServer {
     private static final char END_OF_TRANSMISSION = 4;
+    // The line between the results of two statements in a batch reply, an ASCII record separator
+    static final String STATEMENT_SEPARATOR = "" + (char) 30;
     private final String storageFolderPath;
-    private String databaseName;
-    private final Map<String, List<String>> databaseTables = new HashMap<>();
-    private final Map<String, Integer> tableHighestIds = new HashMap<>();
+    private final DBSession defaultSession = new DBSession();
+    private final Map<String, Set<String>> databaseTables = new ConcurrentHashMap<>();
+    private final Map<String, Integer> tableHighestIds = new ConcurrentHashMap<>();
+    private final LockManager lockManager = new LockManager();
+    private final PlanCache planCache = new PlanCache();
+    private int maxConnections = Integer.getInteger("db.maxConnections", 64);
 
     public static void main(String[] args) throws IOException {
         DBServer server = new DBServer();
+        // The binary protocol is served next to the text one unless its port is set to 0
+        int binaryPort = Integer.getInteger("db.binaryPort", 8889);
+        if (binaryPort > 0) {
+            Thread binaryListener = new Thread(() -> {
+                try {
+                    new DBBinaryServer(server, server.maxConnections).blockingListenOn(binaryPort);
+                } catch (IOException e) {
+                    System.err.println("Binary protocol stopped: " + e.getMessage());
+                }
+            }, "binary-protocol");
+            binaryListener.setDaemon(true);
+            binaryListener.start();
+        }
         server.blockingListenOn(8888);
     }
 
@@ -26,18 +48,38 @@ public class DBServer {
         } catch (IOException e) {
             System.out.println("Can't create database storage folder: " + storageFolderPath);
         }
+        recoverDatabases();
+    }
+
+    // Applies changes that were logged but may not have reached the table files before the last shutdown
+    private void recoverDatabases() {
+        File[] dbFolders = new File(storageFolderPath).listFiles(File::isDirectory);
+        if (dbFolders == null) return;
+
+        for (File dbFolder : dbFolders) {
+            ReadWrite readWrite = new ReadWrite();
+            readWrite.setCurrentDatabase(dbFolder.getName());
+            try {
+                readWrite.recover();
+            } catch (IOException e) {
+                System.err.println("[ERROR] Unable to recover database: " + dbFolder.getName());
+            }
+        }
     }
     public String getStorageFolderPath() {
         return storageFolderPath;
     }
 
-    public String getDatabaseName() {
-        return databaseName;
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    public PlanCache getPlanCache() {
+        return planCache;
     }
 
-    public void setDatabaseName(String dbName) {
-        this.databaseName = dbName;
-        loadTablesForDatabase(dbName);
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
     }
 
     public boolean doesDBExist(String dbName) {
@@ -45,70 +87,64 @@ public class DBServer {
         return dbFolder.exists() && dbFolder.isDirectory();
     }
 
-    public boolean doesTableExist(String tableName) {
-        String tableFilePath = storageFolderPath + File.separator + databaseName + File.separator + tableName + ".tab";
+    public boolean doesTableExist(String dbName, String tableName) {
+        String tableFilePath = storageFolderPath + File.separator + dbName + File.separator + tableName + ".tab";
         return new File(tableFilePath).exists();
     }
 
 
-    private void loadTablesForDatabase(String dbName) {
-        databaseTables.put(dbName, new ArrayList<>());
+    public void loadTablesForDatabase(String dbName) {
+        Set<String> tables = databaseTables.computeIfAbsent(dbName, name -> ConcurrentHashMap.newKeySet());
         File dbFolder = new File(storageFolderPath + File.separator + dbName);
 
         if (dbFolder.exists() && dbFolder.isDirectory()) {
-            File[] tableFiles = dbFolder.listFiles();
+            File[] tableFiles = dbFolder.listFiles((dir, name) -> name.endsWith(".tab"));
             if (tableFiles != null) {
                 for (File file : tableFiles) {
                     String tableName = file.getName();
-                    databaseTables.get(dbName).add(tableName);
-                    loadHighestIdForTable(tableName);
+                    tables.add(tableName);
+                    loadHighestIdForTable(dbName, tableName);
                 }
             }
         }
     }
 
-    private void loadHighestIdForTable(String tableName) {
-        File tableFile = new File(storageFolderPath + File.separator + databaseName + File.separator + tableName);
+    // The id index remembers the highest id ever handed out, even if those rows were deleted since.
+    // A stale index is rebuilt and rewritten here, so the table is locked as if for a write.
+    private void loadHighestIdForTable(String dbName, String tableName) {
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        String name = tableName.replace(".tab", "");
         int highestId = 0;
 
-        if (tableFile.exists()) {
-            try {
-                List<String> lines = Files.readAllLines(tableFile.toPath());
-                for (int i = 1; i < lines.size(); i++) {
-                    String[] row = lines.get(i).split("\t");
-                    try {
-                        int id = Integer.parseInt(row[0]);
-                        if (id > highestId) {
-                            highestId = id;
-                        }
-                    } catch (NumberFormatException ignored) { }
-                }
-            } catch (IOException e) {
-                System.err.println("[ERROR] Unable to read table file: " + tableName);
-            }
+        LockManager.Locks locks = lockManager.acquireTable(dbName, name);
+        try {
+            highestId = (int) readWrite.readHighestId(name);
+            // Another connection may already have handed out higher ids than the file shows
+            tableHighestIds.merge(tableKey(dbName, name), highestId, Math::max);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to read table file: " + tableName);
+        } finally {
+            locks.release();
         }
-
-        tableHighestIds.put(tableName.replace(".tab", ""), highestId);
     }
 
+    private String tableKey(String dbName, String tableName) {
+        return dbName + File.separator + tableName;
+    }
 
-    public int getNextIdForTable(String tableName) {
-        return tableHighestIds.getOrDefault(tableName, 0) + 1;
+    public int getNextIdForTable(String dbName, String tableName) {
+        return tableHighestIds.getOrDefault(tableKey(dbName, tableName), 0) + 1;
     }
 
-    public void updateHighestIdForTable(String tableName, int newId) {
-        tableHighestIds.put(tableName, newId);
+    public void updateHighestIdForTable(String dbName, String tableName, int newId) {
+        tableHighestIds.put(tableKey(dbName, tableName), newId);
     }
 
-    public void addTable(String tableName) {
-        if (!databaseTables.containsKey(databaseName)) {
-            databaseTables.put(databaseName, new ArrayList<>());
-        }
+    public void addTable(String dbName, String tableName) {
+        databaseTables.computeIfAbsent(dbName, name -> ConcurrentHashMap.newKeySet()).add(tableName);
 
-        if (!databaseTables.get(databaseName).contains(tableName)) {
-            databaseTables.get(databaseName).add(tableName);
-        }
-        File tableFile = new File(storageFolderPath + File.separator + databaseName + File.separator + tableName + ".tab");
+        File tableFile = new File(storageFolderPath + File.separator + dbName + File.separator + tableName + ".tab");
         if (!tableFile.exists()) {
             try {
                 tableFile.createNewFile();
@@ -119,13 +155,13 @@ public class DBServer {
     }
 
 
-    public void removeTable(String tableName) {
-        if (databaseTables.containsKey(databaseName)) {
-            databaseTables.get(databaseName).remove(tableName);
+    public void removeTable(String dbName, String tableName) {
+        if (databaseTables.containsKey(dbName)) {
+            databaseTables.get(dbName).remove(tableName);
         }
-        tableHighestIds.remove(tableName);
+        tableHighestIds.remove(tableKey(dbName, tableName));
 
-        File tableFile = new File(storageFolderPath + File.separator + databaseName + File.separator + tableName + ".tab");
+        File tableFile = new File(storageFolderPath + File.separator + dbName + File.separator + tableName + ".tab");
         if (tableFile.exists()) {
             tableFile.delete();
         }
@@ -133,89 +169,229 @@ public class DBServer {
 
 
     public String handleCommand(String command) {
-        if (command == null || command.trim().isEmpty()) {
-            return "[ERROR] Empty command received.";
+        return handleCommand(command, defaultSession);
+    }
+
+    public String handleCommand(String command, DBSession session) {
+        StringWriter result = new StringWriter();
+        try {
+            handleCommand(command, session, new TextResult(result));
+        } catch (IOException e) {
+            return "[ERROR] " + e.getMessage();
         }
-        String previousDatabase = getDatabaseName();
+        return result.toString();
+    }
+
+    // Writes the response to out, which may be a slow client, only once the command has released
+    // its locks. Until then the result is kept in a ResultBuffer. IOExceptions are failures to
+    // buffer the result or to write to out.
+    public void handleCommand(String command, DBSession session, Writer out) throws IOException {
+        try (ResultBuffer result = new ResultBuffer()) {
+            handleCommand(command, session, result);
+            result.replayTo(new TextResult(out));
+        }
+    }
 
+    public void handleCommand(String command, DBSession session, ResultSink out) throws IOException {
+        DBCmd parsedCommand;
         try {
-            QueryParser parser = new QueryParser(command);
-            DBCmd parsedCommand = null;
-            String upperCommand = command.trim().toUpperCase();
-
-            if (upperCommand.startsWith("USE")) {
-                String dbName = parser.parseUse();
-                if (doesDBExist(dbName)) {
-                    setDatabaseName(dbName);
-                    parsedCommand = new CmdUse(this);
-                } else {
-                    return "[ERROR] Database '" + dbName + "' does not exist.";
-                }
-            } else if (upperCommand.startsWith("CREATE DATABASE")) {
-                String dbName = parser.parseCreateDB();
-                parsedCommand = new CmdCreateDatabase(this, dbName);
-            } else if (upperCommand.startsWith("CREATE TABLE")) {
-                parsedCommand = new CmdCreateTable(this, parser);
-            } else if (upperCommand.startsWith("INSERT")) {
-                parsedCommand = new CmdInsert(this, parser);
-            } else if (upperCommand.startsWith("ALTER")) {
-                parsedCommand = new CmdAlter(this, parser);
-            } else if (upperCommand.startsWith("DROP")) {
-                parsedCommand = new CmdDrop(this, parser);
-            } else if (upperCommand.startsWith("JOIN")) {
-                parsedCommand = new CmdJoin(this, parser);
-            } else if (upperCommand.startsWith("SELECT")) {
-                parsedCommand = new CmdSelect(this, parser);
-            } else if (upperCommand.startsWith("UPDATE")) {
-                parsedCommand = new CmdUpdate(this, parser);
-            } else if (upperCommand.startsWith("DELETE")) {
-                parsedCommand = new CmdDelete(this, parser);
-            }
+            parsedCommand = parseCommand(command, session);
+        } catch (IOException e) {
+            out.message("[ERROR] " + e.getMessage());
+            return;
+        }
 
-            if (parsedCommand != null) {
-                return parsedCommand.query(this);
-            } else {
-                return "[ERROR] Unknown or invalid command.";
+        LockManager.Locks locks = lockManager.acquire(parsedCommand);
+        try {
+            parsedCommand.query(this, out);
+        } finally {
+            locks.release();
+        }
+    }
+
+    private DBCmd parseCommand(String command, DBSession session) throws IOException {
+        if (command == null || command.trim().isEmpty()) {
+            throw new IOException("Empty command received.");
+        }
+        if (!command.trim().toUpperCase().startsWith("EXECUTE")) {
+            return fillParameters(planCommand(command, session), List.of());
+        }
+
+        QueryParser parser = new QueryParser(command);
+        parser.parseExecute();
+        String statement = session.getPreparedStatement(parser.getStatementName());
+        if (statement == null) {
+            throw new IOException("Unknown prepared statement: " + parser.getStatementName());
+        }
+        return fillParameters(planCommand(statement, session), parser.getValues());
+    }
+
+    // The parsed command for a statement, from the plan cache when the statement was seen before
+    public DBCmd planCommand(String statement, DBSession session) throws IOException {
+        DBCmd plan = planCache.get(session.getDatabaseName(), statement);
+        if (plan == null) {
+            plan = newCommand(statement, session);
+            if (plan.isReusable()) {
+                planCache.put(session.getDatabaseName(), statement, plan);
             }
+        }
+        return plan;
+    }
 
-        } catch (IOException e) {
-            setDatabaseName(previousDatabase);
-            return "[ERROR] " + e.getMessage();
+    private DBCmd fillParameters(DBCmd plan, List<String> parameters) throws IOException {
+        Iterator<String> remaining = parameters.iterator();
+        DBCmd command;
+        try {
+            command = plan.withParameters(remaining);
+        } catch (NoSuchElementException e) {
+            throw new IOException("Not enough values for the ? parameters.");
+        }
+        if (remaining.hasNext()) {
+            throw new IOException("More values than ? parameters.");
+        }
+        return command;
+    }
+
+    private DBCmd newCommand(String command, DBSession session) throws IOException {
+        QueryParser parser = new QueryParser(command);
+        String upperCommand = command.trim().toUpperCase();
+
+        if (upperCommand.startsWith("PREPARE")) {
+            return new CmdPrepare(session, parser);
+        } else if (upperCommand.startsWith("USE")) {
+            String dbName = parser.parseUse();
+            if (!doesDBExist(dbName)) {
+                throw new IOException("Database '" + dbName + "' does not exist.");
+            }
+            return new CmdUse(session, dbName);
+        } else if (upperCommand.startsWith("CREATE DATABASE")) {
+            String dbName = parser.parseCreateDB();
+            return new CmdCreateDatabase(session, dbName);
+        } else if (upperCommand.startsWith("CREATE TABLE")) {
+            return new CmdCreateTable(session, parser);
+        } else if (upperCommand.startsWith("CREATE INDEX")) {
+            return new CmdCreateIndex(session, parser);
+        } else if (upperCommand.startsWith("INSERT")) {
+            return new CmdInsert(session, parser);
+        } else if (upperCommand.startsWith("LOAD")) {
+            return new CmdLoad(session, parser);
+        } else if (upperCommand.startsWith("ALTER")) {
+            return new CmdAlter(session, parser);
+        } else if (upperCommand.startsWith("DROP")) {
+            return new CmdDrop(session, parser);
+        } else if (upperCommand.startsWith("JOIN")) {
+            return new CmdJoin(session, parser);
+        } else if (upperCommand.startsWith("SELECT")) {
+            return new CmdSelect(session, parser);
+        } else if (upperCommand.startsWith("UPDATE")) {
+            return new CmdUpdate(session, parser);
+        } else if (upperCommand.startsWith("DELETE")) {
+            return new CmdDelete(session, parser);
         }
+        throw new IOException("Unknown or invalid command.");
     }
 
 
     public void blockingListenOn(int portNumber) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(maxConnections);
+        // Once every slot is taken we stop accepting, so new clients queue in the socket backlog
+        Semaphore connectionSlots = new Semaphore(maxConnections);
+
         try (ServerSocket serverSocket = new ServerSocket(portNumber)) {
             System.out.println("Server listening on port " + portNumber);
             while (!Thread.interrupted()) {
                 try {
-                    blockingHandleConnection(serverSocket);
+                    connectionSlots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                try {
+                    Socket socket = serverSocket.accept();
+                    workers.execute(() -> {
+                        try {
+                            blockingHandleConnection(socket);
+                        } catch (IOException e) {
+                            System.err.println("Non-fatal IO error: " + e.getMessage());
+                            System.err.println("Continuing...");
+                        } finally {
+                            connectionSlots.release();
+                        }
+                    });
                 } catch (IOException e) {
+                    connectionSlots.release();
                     System.err.println("Non-fatal IO error: " + e.getMessage());
                     System.err.println("Continuing...");
                 }
             }
+        } finally {
+            workers.shutdownNow();
         }
     }
 
-    private void blockingHandleConnection(ServerSocket serverSocket) throws IOException {
-        try (Socket socket = serverSocket.accept();
+    private void blockingHandleConnection(Socket connection) throws IOException {
+        try (Socket socket = connection;
              BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
              BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()))) {
 
             System.out.println("Connection established: " + socket.getInetAddress());
-            while (!Thread.interrupted()) {
-                String incomingCommand = reader.readLine();
-                if (incomingCommand == null) break;
+            serveConnection(reader, writer, new DBSession());
+        }
+    }
 
-                System.out.println("Received command: " + incomingCommand);
-                String result = handleCommand(incomingCommand);
+    // Statements are answered in the order they arrive, and clients may send more before reading
+    // the replies. Replies are only flushed once no further statement is waiting, so a pipelined
+    // run of statements goes back in a few writes. Statements between BEGIN BATCH and END BATCH
+    // get no reply of their own; END BATCH replies with all their results at once.
+    void serveConnection(BufferedReader reader, Writer writer, DBSession session) throws IOException {
+        List<String> batch = null;
+        while (!Thread.interrupted()) {
+            String incomingCommand = reader.readLine();
+            if (incomingCommand == null) break;
+
+            System.out.println("Received command: " + incomingCommand);
+            if (batch == null && isBatchMarker(incomingCommand, "BEGIN")) {
+                batch = new ArrayList<>();
+                continue;
+            }
+            if (batch != null && !isBatchMarker(incomingCommand, "END")) {
+                batch.add(incomingCommand);
+                continue;
+            }
 
-                writer.write(result);
-                writer.write("\n" + END_OF_TRANSMISSION + "\n");
+            if (batch != null) {
+                handleBatch(batch, session, writer);
+                batch = null;
+            } else {
+                handleCommand(incomingCommand, session, writer);
+            }
+            writer.write("\n" + END_OF_TRANSMISSION + "\n");
+            if (!reader.ready()) {
                 writer.flush();
             }
         }
+        writer.flush();
+    }
+
+    // Runs the statements one after another, each result after a separator line following the
+    // previous one. A failing statement does not stop the ones after it.
+    public void handleBatch(List<String> statements, DBSession session, Writer out) throws IOException {
+        for (int i = 0; i < statements.size(); i++) {
+            if (i > 0) {
+                out.write("\n" + STATEMENT_SEPARATOR + "\n");
+            }
+            handleCommand(statements.get(i), session, out);
+        }
+    }
+
+    // Whether a line is BEGIN BATCH or END BATCH, with any case, spacing and semicolon
+    static boolean isBatchMarker(String line, String word) {
+        String trimmed = line.trim();
+        if (trimmed.endsWith(";")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        if (!trimmed.regionMatches(true, 0, word, 0, word.length())) return false;
+        String rest = trimmed.substring(word.length());
+        return !rest.isEmpty() && rest.charAt(0) <= ' ' && rest.trim().equalsIgnoreCase("BATCH");
     }
 }
@@ -0,0 +1,26 @@
+package edu.uob;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DBSession {
+    private String databaseName;
+    // Statement text by name; the parsed plans live in the server's plan cache
+    private final Map<String, String> preparedStatements = new HashMap<>();
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public void setDatabaseName(String databaseName) {
+        this.databaseName = databaseName;
+    }
+
+    public String getPreparedStatement(String name) {
+        return preparedStatements.get(name.toLowerCase());
+    }
+
+    public void setPreparedStatement(String name, String statement) {
+        preparedStatements.put(name.toLowerCase(), statement);
+    }
+}
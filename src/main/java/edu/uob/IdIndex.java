@@ -0,0 +1,264 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Sorted (id, byte offset) pairs for a .tab file, stored next to it as <table>.idx:
+// [highest id ever assigned][length of the .tab file it describes][id, offset]...
+// For a columnar table the offset is the row number instead.
+// An index whose recorded length does not match the table file is stale and rebuilt on use.
+public class IdIndex {
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 16;
+
+    private final Path tablePath;
+    private final Path indexPath;
+
+    public IdIndex(Path tablePath) {
+        this.tablePath = tablePath;
+        String fileName = tablePath.getFileName().toString();
+        this.indexPath = tablePath.resolveSibling(fileName.substring(0, fileName.length() - ".tab".length()) + ".idx");
+    }
+
+    public Path getIndexPath() {
+        return indexPath;
+    }
+
+    public static long parseId(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // Replaces the index after the whole table file has been rewritten
+    public void write(List<long[]> entries, long tableLength) throws IOException {
+        long highestId = Math.max(readHighestIdOrZero(), highestOf(entries));
+        entries.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        Path tempPath = Files.createTempFile(indexPath.getParent(), "index-", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeLong(highestId);
+            out.writeLong(tableLength);
+            for (long[] entry : entries) {
+                out.writeLong(entry[0]);
+                out.writeLong(entry[1]);
+            }
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Adds rows appended to a table that was tableLengthBefore bytes long. If the index was already
+    // stale, or the new ids would break the sort order, it is dropped and rebuilt on its next use.
+    public void append(List<long[]> entries, long tableLengthBefore, long tableLengthAfter) throws IOException {
+        if (!Files.exists(indexPath)) return;
+
+        boolean stale;
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = readAt(channel, 0, HEADER_BYTES);
+            long highestId = header.getLong();
+            long indexedLength = header.getLong();
+            long lastId = channel.size() > HEADER_BYTES ? readAt(channel, channel.size() - ENTRY_BYTES, 8).getLong() : -1;
+
+            stale = indexedLength != tableLengthBefore || entries.get(0)[0] <= lastId;
+            if (!stale) {
+                ByteBuffer buffer = ByteBuffer.allocate(entries.size() * ENTRY_BYTES);
+                for (long[] entry : entries) {
+                    buffer.putLong(entry[0]).putLong(entry[1]);
+                }
+                buffer.flip();
+                writeAt(channel, buffer, channel.size());
+
+                ByteBuffer newHeader = ByteBuffer.allocate(HEADER_BYTES);
+                newHeader.putLong(Math.max(highestId, highestOf(entries))).putLong(tableLengthAfter).flip();
+                writeAt(channel, newHeader, 0);
+            }
+        }
+        if (stale) {
+            Files.deleteIfExists(indexPath);
+        }
+    }
+
+    public long getHighestId() throws IOException {
+        ensureValid();
+        return readHighestIdOrZero();
+    }
+
+    // Byte offsets of the rows with lo <= id <= hi, in id order
+    public List<Long> findOffsets(long lo, long hi) throws IOException {
+        ensureValid();
+        List<Long> offsets = new ArrayList<>();
+        if (lo > hi) return offsets;
+
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long entries = (channel.size() - HEADER_BYTES) / ENTRY_BYTES;
+            long low = 0;
+            long high = entries;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (readAt(channel, entryPosition(middle), 8).getLong() < lo) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (long entry = low; entry < entries; entry++) {
+                ByteBuffer pair = readAt(channel, entryPosition(entry), ENTRY_BYTES);
+                if (pair.getLong() > hi) break;
+                offsets.add(pair.getLong());
+            }
+        }
+        return offsets;
+    }
+
+    // Byte offsets of the rows with the given sorted ids; ids that are not in the table are skipped
+    public List<Long> findOffsets(long[] ids) throws IOException {
+        ensureValid();
+        List<Long> offsets = new ArrayList<>(ids.length);
+
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            long entries = (channel.size() - HEADER_BYTES) / ENTRY_BYTES;
+            long low = 0;
+            for (long id : ids) {
+                long high = entries;
+                while (low < high) {
+                    long middle = (low + high) >>> 1;
+                    if (readAt(channel, entryPosition(middle), 8).getLong() < id) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                if (low == entries) break;
+                ByteBuffer pair = readAt(channel, entryPosition(low), ENTRY_BYTES);
+                if (pair.getLong() == id) {
+                    offsets.add(pair.getLong());
+                }
+            }
+        }
+        return offsets;
+    }
+
+    private long entryPosition(long entry) {
+        return HEADER_BYTES + entry * ENTRY_BYTES;
+    }
+
+    private void ensureValid() throws IOException {
+        if (Files.exists(indexPath) && Files.size(indexPath) >= HEADER_BYTES) {
+            try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+                ByteBuffer header = readAt(channel, 0, HEADER_BYTES);
+                header.getLong();
+                if (header.getLong() == Files.size(tablePath)) return;
+            }
+        }
+        rebuild();
+    }
+
+    void rebuild() throws IOException {
+        long tableLength = Files.size(tablePath);
+        if (ColumnarFormat.isColumnar(tablePath)) {
+            write(ColumnarFormat.readIdEntries(tablePath), tableLength);
+            return;
+        }
+        List<long[]> entries = new ArrayList<>();
+
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(tablePath))) {
+            ByteBuffer field = ByteBuffer.allocate(64);
+            long offset = 0;
+            long lineStart = 0;
+            boolean header = true;
+            boolean inFirstField = true;
+            int b;
+            while ((b = in.read()) != -1) {
+                if (b == '\n') {
+                    addEntry(entries, header, field, lineStart);
+                    header = false;
+                    inFirstField = true;
+                    field.clear();
+                    lineStart = offset + 1;
+                } else if (b == '\t' || b == '\r') {
+                    inFirstField = false;
+                } else if (inFirstField && field.hasRemaining()) {
+                    field.put((byte) b);
+                }
+                offset++;
+            }
+            if (offset > lineStart) {
+                addEntry(entries, header, field, lineStart);
+            }
+        }
+        write(entries, tableLength);
+    }
+
+    private void addEntry(List<long[]> entries, boolean header, ByteBuffer field, long lineStart) {
+        if (header || field.position() == 0) return;
+        long id = parseId(new String(field.array(), 0, field.position(), StandardCharsets.UTF_8));
+        if (id >= 0) {
+            entries.add(new long[] {id, lineStart});
+        }
+    }
+
+    private long readHighestIdOrZero() {
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            return channel.size() >= HEADER_BYTES ? readAt(channel, 0, 8).getLong() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long highestOf(List<long[]> entries) {
+        long highest = 0;
+        for (long[] entry : entries) {
+            highest = Math.max(highest, entry[0]);
+        }
+        return highest;
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of index file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeAt(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package edu.uob;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+// Rows of the build side of a hash join, grouped by join key. Integer keys live in an
+// open-addressing table of longs, so INTEGER columns are hashed and compared without strings;
+// other keys match case-insensitively. Rows with the same key are chained in row order.
+// Large build sides are radix-partitioned on the key hash into cache-sized tables built in
+// parallel. Lookups only read, so any number of threads can probe at once.
+public class JoinHashTable {
+    private static final int NONE = -1;
+    private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    private static final int PARTITION_ROWS = 65_536;
+    private static final int MAX_PARTITION_BITS = 10;
+    private static int radixThreshold = Integer.getInteger("db.join.radixThreshold", 500_000);
+
+    private final int partitionBits;
+    private final Partition[] partitions;
+    private final int[] next;
+
+    public JoinHashTable(Table table, int columnIndex) {
+        List<String[]> rows = table.getRows();
+        TypedColumn typed = table.typedColumn(columnIndex);
+        int rowCount = rows.size();
+        partitionBits = rowCount < radixThreshold ? 0
+                : Math.max(1, Math.min(MAX_PARTITION_BITS, 32 - Integer.numberOfLeadingZeros(rowCount / PARTITION_ROWS)));
+        next = new int[rowCount];
+        Arrays.fill(next, NONE);
+
+        // Text keys are null where the key is an integer
+        long[] integerKeys = new long[rowCount];
+        String[] textKeys = new String[rowCount];
+        IntStream keyRows = IntStream.range(0, rowCount);
+        (partitionBits == 0 ? keyRows : keyRows.parallel()).forEach(i -> {
+            if (hasIntegerAt(typed, i)) {
+                integerKeys[i] = typed.longs[i];
+                return;
+            }
+            String value = rows.get(i)[columnIndex].trim();
+            if (isIntegerKey(value)) {
+                integerKeys[i] = Long.parseLong(value);
+            } else {
+                textKeys[i] = joinKey(value);
+            }
+        });
+
+        if (partitionBits == 0) {
+            partitions = new Partition[] {new Partition(rowCount)};
+            for (int i = 0; i < rowCount; i++) {
+                partitions[0].add(i, integerKeys[i], textKeys[i]);
+            }
+            return;
+        }
+
+        // Group rows by partition, keeping row order within each, then build the partitions side by side
+        int partitionCount = 1 << partitionBits;
+        int[] partitionOf = new int[rowCount];
+        int[] starts = new int[partitionCount + 1];
+        for (int i = 0; i < rowCount; i++) {
+            partitionOf[i] = textKeys[i] == null ? partitionOf(integerKeys[i]) : partitionOf(textKeys[i]);
+            starts[partitionOf[i] + 1]++;
+        }
+        for (int p = 0; p < partitionCount; p++) {
+            starts[p + 1] += starts[p];
+        }
+        int[] ordered = new int[rowCount];
+        int[] filled = Arrays.copyOf(starts, partitionCount);
+        for (int i = 0; i < rowCount; i++) {
+            ordered[filled[partitionOf[i]]++] = i;
+        }
+
+        partitions = new Partition[partitionCount];
+        IntStream.range(0, partitionCount).parallel().forEach(p -> {
+            Partition partition = new Partition(starts[p + 1] - starts[p]);
+            for (int k = starts[p]; k < starts[p + 1]; k++) {
+                partition.add(ordered[k], integerKeys[ordered[k]], textKeys[ordered[k]]);
+            }
+            partitions[p] = partition;
+        });
+    }
+
+    public static void setRadixThreshold(int rows) {
+        radixThreshold = rows;
+    }
+
+    // The first build row that joins with the given row of the probe table, or -1;
+    // the rest follow through next()
+    public int first(Table probeTable, int columnIndex, int row) {
+        TypedColumn typed = probeTable.typedColumn(columnIndex);
+        if (hasIntegerAt(typed, row)) {
+            return firstInteger(typed.longs[row]);
+        }
+        String value = probeTable.getRows().get(row)[columnIndex].trim();
+        if (isIntegerKey(value)) {
+            return firstInteger(Long.parseLong(value));
+        }
+        String key = joinKey(value);
+        int[] chain = partitions[partitionOf(key)].textKeys.get(key);
+        return chain == null ? NONE : chain[0];
+    }
+
+    public int next(int row) {
+        return next[row];
+    }
+
+    private int firstInteger(long key) {
+        Partition partition = partitions[partitionOf(key)];
+        return partition.slotFirst[partition.slotOf(key)];
+    }
+
+    // Partitions take the top bits of the hash, slots within a partition the bottom ones
+    private int partitionOf(long key) {
+        return partitionBits == 0 ? 0 : (int) ((key * HASH_MULTIPLIER) >>> (64 - partitionBits));
+    }
+
+    private int partitionOf(String key) {
+        return partitionBits == 0 ? 0 : (key.hashCode() * (int) HASH_MULTIPLIER) >>> (32 - partitionBits);
+    }
+
+    // Partitions hold disjoint rows, so they can link their own rows in next[] concurrently
+    private class Partition {
+        private final long[] slotKeys;
+        private final int[] slotFirst;
+        private final int[] slotLast;
+        private final Map<String, int[]> textKeys = new HashMap<>();
+
+        Partition(int rowCount) {
+            int capacity = Integer.highestOneBit(Math.max(rowCount, 1)) * 4;
+            slotKeys = new long[capacity];
+            slotFirst = new int[capacity];
+            slotLast = new int[capacity];
+            Arrays.fill(slotFirst, NONE);
+        }
+
+        void add(int row, long integerKey, String textKey) {
+            if (textKey == null) {
+                int slot = slotOf(integerKey);
+                if (slotFirst[slot] == NONE) {
+                    slotKeys[slot] = integerKey;
+                    slotFirst[slot] = row;
+                } else {
+                    next[slotLast[slot]] = row;
+                }
+                slotLast[slot] = row;
+                return;
+            }
+            int[] chain = textKeys.get(textKey);
+            if (chain == null) {
+                textKeys.put(textKey, new int[] {row, row});
+            } else {
+                next[chain[1]] = row;
+                chain[1] = row;
+            }
+        }
+
+        // The slot holding key, or the empty slot where it would go
+        int slotOf(long key) {
+            int mask = slotKeys.length - 1;
+            int slot = Long.hashCode(key * HASH_MULTIPLIER) & mask;
+            while (slotFirst[slot] != NONE && slotKeys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+    }
+
+    private static boolean hasIntegerAt(TypedColumn typed, int row) {
+        return typed != null && typed.longs != null && !typed.notNumeric[row];
+    }
+
+    // Integers match by value ("007" == "7", "+7" == "7"); those too long for a long are compared
+    // as digit strings
+    private static boolean isIntegerKey(String value) {
+        int start = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+        while (start < value.length() - 1 && value.charAt(start) == '0') start++;
+        // Only digits may follow the one sign, so "--7" and "-0-5" are text keys
+        return isDigits(value.substring(start)) && value.length() - start <= 18;
+    }
+
+    // Integers match by value ("007" == "7"), everything else matches case-insensitively.
+    // An integer key can never collide with a string key, since the latter contains a non-digit.
+    static String joinKey(String value) {
+        String trimmed = value.trim();
+        if (isIntegerKey(trimmed)) {
+            return Long.toString(Long.parseLong(trimmed));
+        }
+        if (isDigits(trimmed)) {
+            int start = 0;
+            while (start < trimmed.length() - 1 && trimmed.charAt(start) == '0') {
+                start++;
+            }
+            return trimmed.substring(start);
+        }
+        return trimmed.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isDigits(String value) {
+        if (value.isEmpty()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,283 @@
+package edu.uob;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Joins tables too large to hash by sorting both sides into runs on disk and merging them.
+// The matched pairs are sorted again the same way, by their rows' positions, so they come out in
+// the order of the hash join without ever being held in memory all at once.
+public class JoinSortMerge implements AutoCloseable {
+    // Build sides larger than this (in bytes on disk) are joined by sorting runs on disk instead of hashing
+    private static long memoryBudget = Long.getLong("db.join.memoryBudget", Runtime.getRuntime().maxMemory() / 8);
+    private static int runSize = Integer.getInteger("db.join.runSize", 50_000);
+    // Most runs of one side read at once; more runs are first merged into fewer, longer ones
+    private static int mergeFanIn = Integer.getInteger("db.join.mergeFanIn", 64);
+
+    private static final Comparator<SpillRecord> RECORD_ORDER =
+            Comparator.comparing((SpillRecord record) -> record.key).thenComparingLong(record -> record.rowNumber);
+
+    private final Path spillFolder;
+    private final List<Path> spillFiles = new ArrayList<>();
+    private final List<RunReader> openRuns = new ArrayList<>();
+    private MergedRuns left;
+    private MergedRuns right;
+
+    public interface MatchHandler {
+        void onMatch(String[] row1, String[] row2) throws IOException;
+    }
+
+    public JoinSortMerge(Path spillFolder) {
+        this.spillFolder = spillFolder;
+    }
+
+    public static boolean shouldUse(long buildSideBytes) {
+        return buildSideBytes > memoryBudget;
+    }
+
+    public static void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+    }
+
+    public static void setRunSize(int rows) {
+        runSize = rows;
+    }
+
+    public static void setMergeFanIn(int runs) {
+        mergeFanIn = Math.max(2, runs);
+    }
+
+    // Both readers must be positioned after the header line
+    public void sort(BufferedReader input1, int index1, BufferedReader input2, int index2) throws IOException {
+        left = openRuns(sortIntoRuns(input1, index1));
+        right = openRuns(sortIntoRuns(input2, index2));
+    }
+
+    // Hands every pair of rows with equal keys to handler, ordered by the position of the row in
+    // table1, then in table2
+    public void merge(MatchHandler handler) throws IOException {
+        List<SpillRecord> rightGroup = new ArrayList<>();
+        List<SpillRecord> pairs = new ArrayList<>();
+        List<Path> pairRuns = new ArrayList<>();
+
+        while (left.peek() != null && right.peek() != null) {
+            int comparison = left.peek().key.compareTo(right.peek().key);
+            if (comparison < 0) {
+                left.next();
+            } else if (comparison > 0) {
+                right.next();
+            } else {
+                String key = left.peek().key;
+                rightGroup.clear();
+                while (right.peek() != null && right.peek().key.equals(key)) {
+                    rightGroup.add(right.next());
+                }
+                while (left.peek() != null && left.peek().key.equals(key)) {
+                    SpillRecord leftRecord = left.next();
+                    for (SpillRecord rightRecord : rightGroup) {
+                        pairs.add(SpillRecord.pair(leftRecord, rightRecord));
+                        if (pairs.size() >= runSize) {
+                            pairRuns.add(spillRun(pairs));
+                            pairs.clear();
+                        }
+                    }
+                }
+            }
+        }
+
+        if (pairRuns.isEmpty()) {
+            pairs.sort(RECORD_ORDER);
+            for (SpillRecord pair : pairs) {
+                pair.handPair(handler);
+            }
+            return;
+        }
+        if (!pairs.isEmpty()) {
+            pairRuns.add(spillRun(pairs));
+        }
+        MergedRuns merged = openRuns(mergeDownToFanIn(pairRuns));
+        for (SpillRecord pair = merged.next(); pair != null; pair = merged.next()) {
+            pair.handPair(handler);
+        }
+    }
+
+    // Closes the runs and deletes every spill file
+    @Override
+    public void close() throws IOException {
+        for (RunReader run : openRuns) {
+            run.reader.close();
+        }
+        openRuns.clear();
+        for (Path spillFile : spillFiles) {
+            Files.deleteIfExists(spillFile);
+        }
+        spillFiles.clear();
+    }
+
+    private List<Path> sortIntoRuns(BufferedReader input, int columnIndex) throws IOException {
+        List<SpillRecord> run = new ArrayList<>();
+        List<Path> runs = new ArrayList<>();
+        long rowNumber = 0;
+        String line;
+
+        while ((line = input.readLine()) != null) {
+            String[] row = line.split("\t");
+            run.add(new SpillRecord(JoinHashTable.joinKey(row[columnIndex]), rowNumber++, line));
+            if (run.size() >= runSize) {
+                runs.add(spillRun(run));
+                run.clear();
+            }
+        }
+        if (!run.isEmpty()) {
+            runs.add(spillRun(run));
+        }
+        return mergeDownToFanIn(runs);
+    }
+
+    private List<Path> mergeDownToFanIn(List<Path> runs) throws IOException {
+        while (runs.size() > mergeFanIn) {
+            List<Path> longerRuns = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += mergeFanIn) {
+                longerRuns.add(mergeRuns(runs.subList(i, Math.min(runs.size(), i + mergeFanIn))));
+            }
+            runs = longerRuns;
+        }
+        return runs;
+    }
+
+    private Path spillRun(List<SpillRecord> run) throws IOException {
+        run.sort(RECORD_ORDER);
+        Path spillFile = newSpillFile();
+        try (BufferedWriter writer = Files.newBufferedWriter(spillFile)) {
+            for (SpillRecord record : run) {
+                record.write(writer);
+            }
+        }
+        return spillFile;
+    }
+
+    // Merges runs into one run and deletes them
+    private Path mergeRuns(List<Path> runs) throws IOException {
+        if (runs.size() == 1) return runs.get(0);
+        Path spillFile = newSpillFile();
+        List<RunReader> readers = new ArrayList<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(spillFile)) {
+            MergedRuns merged = new MergedRuns();
+            for (Path run : runs) {
+                RunReader reader = new RunReader(Files.newBufferedReader(run));
+                readers.add(reader);
+                merged.add(reader);
+            }
+            for (SpillRecord record = merged.next(); record != null; record = merged.next()) {
+                record.write(writer);
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.reader.close();
+            }
+        }
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        spillFiles.removeAll(runs);
+        return spillFile;
+    }
+
+    private MergedRuns openRuns(List<Path> runs) throws IOException {
+        MergedRuns merged = new MergedRuns();
+        for (Path run : runs) {
+            RunReader reader = new RunReader(Files.newBufferedReader(run));
+            openRuns.add(reader);
+            merged.add(reader);
+        }
+        return merged;
+    }
+
+    private Path newSpillFile() throws IOException {
+        Path spillFile = Files.createTempFile(spillFolder, "join-", ".run");
+        spillFiles.add(spillFile);
+        return spillFile;
+    }
+
+    private static class SpillRecord {
+        final String key;
+        final long rowNumber;
+        final String line;
+
+        SpillRecord(String key, long rowNumber, String line) {
+            this.key = key;
+            this.rowNumber = rowNumber;
+            this.line = line;
+        }
+
+        // A matched pair, keyed so pairs sort by the row in table1, then the row in table2. The line
+        // is the length of the table1 line, then both lines.
+        static SpillRecord pair(SpillRecord left, SpillRecord right) {
+            String position = Long.toString(left.rowNumber);
+            String key = "0".repeat(19 - position.length()) + position;
+            return new SpillRecord(key, right.rowNumber, left.line.length() + "\t" + left.line + right.line);
+        }
+
+        void handPair(MatchHandler handler) throws IOException {
+            int lengthEnd = line.indexOf('\t');
+            int rightStart = lengthEnd + 1 + Integer.parseInt(line.substring(0, lengthEnd));
+            handler.onMatch(line.substring(lengthEnd + 1, rightStart).split("\t"), line.substring(rightStart).split("\t"));
+        }
+
+        static SpillRecord parse(String spilledLine) {
+            String[] parts = spilledLine.split("\t", 3);
+            return new SpillRecord(parts[0], Long.parseLong(parts[1]), parts.length > 2 ? parts[2] : "");
+        }
+
+        void write(BufferedWriter writer) throws IOException {
+            writer.write(key + "\t" + rowNumber + "\t" + line);
+            writer.newLine();
+        }
+    }
+
+    private static class RunReader {
+        final BufferedReader reader;
+        SpillRecord current;
+
+        RunReader(BufferedReader reader) throws IOException {
+            this.reader = reader;
+            advance();
+        }
+
+        void advance() throws IOException {
+            String line = reader.readLine();
+            current = line == null ? null : SpillRecord.parse(line);
+        }
+    }
+
+    private static class MergedRuns {
+        private final PriorityQueue<RunReader> queue =
+                new PriorityQueue<>((a, b) -> RECORD_ORDER.compare(a.current, b.current));
+
+        void add(RunReader run) {
+            if (run.current != null) {
+                queue.add(run);
+            }
+        }
+
+        SpillRecord peek() {
+            RunReader head = queue.peek();
+            return head == null ? null : head.current;
+        }
+
+        SpillRecord next() throws IOException {
+            RunReader head = queue.poll();
+            if (head == null) return null;
+            SpillRecord record = head.current;
+            head.advance();
+            add(head);
+            return record;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class LockManager {
+    private final Map<String, ReentrantReadWriteLock> locks = new ConcurrentHashMap<>();
+    private final LongAdder lockWaitNanos = new LongAdder();
+    private final LongAdder lockAcquisitions = new LongAdder();
+    private final AtomicLong maxLockWaitNanos = new AtomicLong();
+
+    public static class Locks {
+        private final List<Lock> held = new ArrayList<>();
+
+        public void release() {
+            for (int i = held.size() - 1; i >= 0; i--) {
+                held.get(i).unlock();
+            }
+            held.clear();
+        }
+    }
+
+    // Every table command holds its database lock shared, so DROP DATABASE (database lock
+    // exclusive) waits for them. Table locks are taken in name order to avoid deadlocks.
+    public Locks acquire(DBCmd command) {
+        Locks locks = new Locks();
+        String databaseName = command.databaseName;
+        if (databaseName == null) {
+            return locks;
+        }
+
+        boolean wholeDatabase = command.isWrite() && command.tableNames.isEmpty();
+        ReentrantReadWriteLock databaseLock = lockFor(databaseName, null);
+        lock(locks, wholeDatabase ? databaseLock.writeLock() : databaseLock.readLock());
+
+        for (String tableName : new TreeSet<>(command.tableNames)) {
+            ReentrantReadWriteLock tableLock = lockFor(databaseName, tableName);
+            lock(locks, command.isWrite() ? tableLock.writeLock() : tableLock.readLock());
+        }
+        return locks;
+    }
+
+    // A single table held exclusively outside any command, such as while USE reads its ids
+    public Locks acquireTable(String databaseName, String tableName) {
+        Locks locks = new Locks();
+        lock(locks, lockFor(databaseName, null).readLock());
+        lock(locks, lockFor(databaseName, tableName).writeLock());
+        return locks;
+    }
+
+    private ReentrantReadWriteLock lockFor(String databaseName, String tableName) {
+        String key = tableName == null ? databaseName : databaseName + "/" + tableName;
+        return locks.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
+    }
+
+    private void lock(Locks locks, Lock lock) {
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            long waited = System.nanoTime() - start;
+            lockWaitNanos.add(waited);
+            maxLockWaitNanos.accumulateAndGet(waited, Math::max);
+        }
+        lockAcquisitions.increment();
+        locks.held.add(lock);
+    }
+
+    public long getLockWaitNanos() {
+        return lockWaitNanos.sum();
+    }
+
+    public long getMaxLockWaitNanos() {
+        return maxLockWaitNanos.get();
+    }
+
+    public long getLockAcquisitions() {
+        return lockAcquisitions.sum();
+    }
+}
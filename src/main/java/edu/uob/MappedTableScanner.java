@@ -0,0 +1,111 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Scans a .tab file through memory-mapped windows, finding rows and fields in the raw bytes and
+// only decoding the columns a query uses. Tabs and newlines are single bytes in UTF-8, so field
+// boundaries can be found without decoding anything.
+public class MappedTableScanner {
+    private static long windowBytes = Long.getLong("db.scan.windowBytes", 64L * 1024 * 1024);
+
+    private final Path tablePath;
+    private final boolean[] columnsUsed;
+    private byte[] field = new byte[256];
+
+    // columnsUsed[i] says whether column i is decoded; null decodes every column
+    public MappedTableScanner(Path tablePath, boolean[] columnsUsed) {
+        this.tablePath = tablePath;
+        this.columnsUsed = columnsUsed;
+    }
+
+    public static void setWindowBytes(long bytes) {
+        windowBytes = bytes;
+    }
+
+    // Visits every row after the header, with unused columns left null. The array is reused for
+    // the next row, so visitors must not keep it.
+    public void scan(ReadWrite.RowVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(tablePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            long mapBytes = windowBytes;
+            String[] row = null;
+
+            while (position < size) {
+                long length = Math.min(mapBytes, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean lastWindow = position + length == size;
+
+                // Windows end after the last complete line; a line longer than a window gets a bigger one
+                int end = (int) length;
+                while (end > 0 && window.get(end - 1) != '\n') end--;
+                if (end == 0 && !lastWindow) {
+                    mapBytes = Math.min(mapBytes * 2, Integer.MAX_VALUE);
+                    continue;
+                }
+                if (lastWindow) end = (int) length;
+
+                int lineStart = 0;
+                while (lineStart < end) {
+                    int lineEnd = lineStart;
+                    while (lineEnd < end && window.get(lineEnd) != '\n') lineEnd++;
+                    int contentEnd = lineEnd > lineStart && window.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+
+                    if (row == null) {
+                        row = new String[countFields(window, lineStart, contentEnd)];
+                    } else {
+                        decodeRow(window, lineStart, contentEnd, row);
+                        visitor.visit(row);
+                    }
+                    lineStart = lineEnd + 1;
+                }
+                position += end;
+                mapBytes = windowBytes;
+            }
+        }
+    }
+
+    private int countFields(MappedByteBuffer window, int start, int end) {
+        int fields = 1;
+        for (int i = start; i < end; i++) {
+            if (window.get(i) == '\t') fields++;
+        }
+        return fields;
+    }
+
+    // Columns missing from a short row are decoded as empty
+    private void decodeRow(MappedByteBuffer window, int start, int end, String[] row) {
+        int column = 0;
+        int fieldStart = start;
+        for (int i = start; i <= end && column < row.length; i++) {
+            if (i == end || window.get(i) == '\t') {
+                if (isUsed(column)) {
+                    row[column] = decode(window, fieldStart, i);
+                }
+                column++;
+                fieldStart = i + 1;
+            }
+        }
+        for (; column < row.length; column++) {
+            row[column] = isUsed(column) ? "" : null;
+        }
+    }
+
+    private boolean isUsed(int column) {
+        return columnsUsed == null || (column < columnsUsed.length && columnsUsed[column]);
+    }
+
+    private String decode(MappedByteBuffer window, int start, int end) {
+        int length = end - start;
+        if (length > field.length) {
+            field = new byte[Math.max(length, field.length * 2)];
+        }
+        window.get(start, field, 0, length);
+        return new String(field, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -1,5 +1,92 @@
 package edu.uob;
 
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 public abstract class NodeQuery {
-    public abstract boolean evaluate(String[] row, String[] firstColumnList);
+    // Tables with at least this many rows are filtered in ranges on the common fork-join pool
+    private static int parallelThreshold = Integer.getInteger("db.scan.parallelThreshold", 100_000);
+    private static final int MIN_RANGE_ROWS = 1024;
+
+    // Resolves columns and literals against the table header once per query
+    public abstract NodeQuery bind(String[] firstColumnList);
+
+    // A copy with each ? placeholder replaced by the next parameter, in the order they were written
+    public abstract NodeQuery withParameters(Iterator<String> parameters);
+
+    // Only valid on a tree returned by bind
+    public abstract boolean evaluate(String[] row);
+
+    // evaluate() for every row of an in-memory table, by row position. Large tables are split into
+    // ranges evaluated across cores, each writing its own part of the result.
+    public boolean[] evaluateAll(Table table) {
+        int rowCount = table.getRowCount();
+        boolean[] matches = new boolean[rowCount];
+        if (rowCount < parallelThreshold) {
+            evaluateRange(table, 0, rowCount, matches, null);
+        } else {
+            // A few ranges per core so a slow range does not leave the others idle
+            ForkJoinPool pool = ForkJoinPool.commonPool();
+            int rangeRows = Math.max(MIN_RANGE_ROWS, rowCount / (pool.getParallelism() * 4));
+            pool.invoke(new RangeTask(table, 0, rowCount, rangeRows, matches));
+        }
+        return matches;
+    }
+
+    public static void setParallelThreshold(int rows) {
+        parallelThreshold = rows;
+    }
+
+    // Sets matches[i - from] for rows from to to - 1, comparing INTEGER and FLOAT columns
+    // through their primitive values instead of parsing each row. Rows with open[i - from] false
+    // are left alone; a null open array means every row.
+    abstract void evaluateRange(Table table, int from, int to, boolean[] matches, boolean[] open);
+
+    private class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Table table;
+        private final int from;
+        private final int to;
+        private final int rangeRows;
+        private final boolean[] matches;
+
+        RangeTask(Table table, int from, int to, int rangeRows, boolean[] matches) {
+            this.table = table;
+            this.from = from;
+            this.to = to;
+            this.rangeRows = rangeRows;
+            this.matches = matches;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= rangeRows) {
+                boolean[] rangeMatches = new boolean[to - from];
+                evaluateRange(table, from, to, rangeMatches, null);
+                System.arraycopy(rangeMatches, 0, matches, from, rangeMatches.length);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(table, from, middle, rangeRows, matches),
+                    new RangeTask(table, middle, to, rangeRows, matches));
+        }
+    }
+
+    // Rough estimates used to order operands of AND/OR: the fraction of rows expected
+    // to match, and the relative cost of evaluating one row
+    abstract double selectivity();
+
+    abstract double cost();
+
+    // Inclusive {lo, hi} bounds on the id column that every matching row satisfies, or null
+    // if the condition does not restrict id. Rows inside the range still need evaluate().
+    abstract long[] idRange();
+
+    // Sorted ids of every row that may match, looked up in the secondary indexes (indexes[i] covers
+    // column i, null where there is none), or null if they cannot narrow the condition down
+    abstract long[] indexedIds(SecondaryIndex[] indexes);
+
+    // Sets used[i] for every column i the bound condition reads
+    abstract void markColumnsUsed(boolean[] used);
 }
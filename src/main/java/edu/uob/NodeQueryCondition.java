@@ -1,51 +1,238 @@
 package edu.uob;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
 public class NodeQueryCondition extends NodeQuery {
     String column;
     String operator;
     String value;
 
+    private final Comparison comparison;
+    private final int columnIndex;
+    private final double numericValue;
+    private final boolean bound;
+    private final boolean parameter;
+
+    enum Comparison {
+        EQUAL, NOT_EQUAL, GREATER, LESS, GREATER_EQUAL, LESS_EQUAL, LIKE, UNKNOWN;
+
+        static Comparison fromOperator(String operator) {
+            return switch (operator.toUpperCase(Locale.ROOT)) {
+                case "==" -> EQUAL;
+                case "!=" -> NOT_EQUAL;
+                case ">" -> GREATER;
+                case "<" -> LESS;
+                case ">=" -> GREATER_EQUAL;
+                case "<=" -> LESS_EQUAL;
+                case "LIKE" -> LIKE;
+                default -> UNKNOWN;
+            };
+        }
+    }
+
+    // An unquoted ? is a placeholder for a prepared statement parameter
     public NodeQueryCondition(String column, String operator, String value) {
+        this(column, operator,
+                value.startsWith("'") && value.endsWith("'") ? value.substring(1, value.length() - 1) : value,
+                -1, false, value.equals("?"));
+    }
+
+    private NodeQueryCondition(String column, String operator, String value, int columnIndex, boolean bound,
+                               boolean parameter) {
         this.column = column;
         this.operator = operator;
-        this.value = value.startsWith("'") && value.endsWith("'") ? value.substring(1, value.length() - 1) : value;
+        this.value = value;
+        this.comparison = Comparison.fromOperator(operator);
+        this.columnIndex = columnIndex;
+        this.numericValue = parseNumber(value, 0, value.length());
+        this.bound = bound;
+        this.parameter = parameter;
     }
 
     @Override
-    public boolean evaluate(String[] row, String[] firstColumnList) {
-        int columnIndex = findColumnIndex(firstColumnList, column);
-        if (columnIndex == -1) return false;
+    public NodeQuery bind(String[] firstColumnList) {
+        if (parameter) throw new IllegalStateException("Condition on '" + column + "' has no parameter value.");
+        return new NodeQueryCondition(column, operator, value, findColumnIndex(firstColumnList, column), true, false);
+    }
 
-        String rowValue = row[columnIndex].trim();
-        return compare(rowValue, operator, value);
+    @Override
+    public NodeQuery withParameters(Iterator<String> parameters) {
+        return parameter ? new NodeQueryCondition(column, operator, parameters.next()) : this;
     }
 
-    private boolean compare(String rowValue, String operator, String value) {
-        boolean isNumeric = rowValue.matches("-?\\d+(\\.\\d+)?") && value.matches("-?\\d+(\\.\\d+)?");
+    @Override
+    public boolean evaluate(String[] row) {
+        if (!bound) throw new IllegalStateException("Condition on '" + column + "' has not been bound to a table.");
+        if (columnIndex == -1) return false;
 
-        if (isNumeric) {
-            double rowNum = Double.parseDouble(rowValue);
-            double condNum = Double.parseDouble(value);
+        String rowValue = row[columnIndex];
+        int start = 0;
+        int end = rowValue.length();
+        while (start < end && rowValue.charAt(start) <= ' ') start++;
+        while (end > start && rowValue.charAt(end - 1) <= ' ') end--;
 
-            return switch (operator) {
-                case "==" -> rowNum == condNum;
-                case "!=" -> rowNum != condNum;
-                case ">" -> rowNum > condNum;
-                case "<" -> rowNum < condNum;
-                case ">=" -> rowNum >= condNum;
-                case "<=" -> rowNum <= condNum;
+        // Same rules as before: numbers compare numerically when both sides are numeric,
+        // otherwise only ==, != and LIKE apply and they ignore case
+        double rowNumber = Double.isNaN(numericValue) ? Double.NaN : parseNumber(rowValue, start, end);
+        if (!Double.isNaN(rowNumber)) {
+            return switch (comparison) {
+                case EQUAL -> rowNumber == numericValue;
+                case NOT_EQUAL -> rowNumber != numericValue;
+                case GREATER -> rowNumber > numericValue;
+                case LESS -> rowNumber < numericValue;
+                case GREATER_EQUAL -> rowNumber >= numericValue;
+                case LESS_EQUAL -> rowNumber <= numericValue;
                 default -> false;
             };
-        } else {
-            return switch (operator.toUpperCase()) {
-                case "==" -> rowValue.equalsIgnoreCase(value);
-                case "!=" -> !rowValue.equalsIgnoreCase(value);
-                case "LIKE"-> rowValue.toLowerCase().contains(value.toLowerCase());
+        }
+        return switch (comparison) {
+            case EQUAL -> equalsIgnoreCase(rowValue, start, end);
+            case NOT_EQUAL -> !equalsIgnoreCase(rowValue, start, end);
+            case LIKE -> containsIgnoreCase(rowValue, start, end);
+            default -> false;
+        };
+    }
+
+    @Override
+    void evaluateRange(Table table, int from, int to, boolean[] matches, boolean[] open) {
+        List<String[]> rows = table.getRows();
+        TypedColumn typed = columnIndex < 0 || Double.isNaN(numericValue) ? null : table.typedColumn(columnIndex);
+        for (int i = from; i < to; i++) {
+            if (open != null && !open[i - from]) continue;
+            if (typed == null || typed.notNumeric[i]) {
+                matches[i - from] = evaluate(rows.get(i));
+                continue;
+            }
+            double rowNumber = typed.numberAt(i);
+            matches[i - from] = switch (comparison) {
+                case EQUAL -> rowNumber == numericValue;
+                case NOT_EQUAL -> rowNumber != numericValue;
+                case GREATER -> rowNumber > numericValue;
+                case LESS -> rowNumber < numericValue;
+                case GREATER_EQUAL -> rowNumber >= numericValue;
+                case LESS_EQUAL -> rowNumber <= numericValue;
                 default -> false;
             };
         }
     }
 
+    @Override
+    long[] idRange() {
+        if (!bound || columnIndex != 0 || !column.equalsIgnoreCase("id") || Double.isNaN(numericValue)) {
+            return null;
+        }
+        return switch (comparison) {
+            case EQUAL -> numericValue == Math.floor(numericValue)
+                    ? new long[] {(long) numericValue, (long) numericValue}
+                    : new long[] {1, 0};
+            case GREATER -> new long[] {(long) Math.floor(numericValue) + 1, Long.MAX_VALUE};
+            case GREATER_EQUAL -> new long[] {(long) Math.ceil(numericValue), Long.MAX_VALUE};
+            case LESS -> new long[] {Long.MIN_VALUE, (long) Math.ceil(numericValue) - 1};
+            case LESS_EQUAL -> new long[] {Long.MIN_VALUE, (long) Math.floor(numericValue)};
+            default -> null;
+        };
+    }
+
+    @Override
+    long[] indexedIds(SecondaryIndex[] indexes) {
+        if (!bound || columnIndex < 0 || columnIndex >= indexes.length || indexes[columnIndex] == null) {
+            return null;
+        }
+        SecondaryIndex index = indexes[columnIndex];
+        // Only numbers can satisfy <, >, <= and >=
+        if (comparison != Comparison.EQUAL && comparison != Comparison.NOT_EQUAL
+                && comparison != Comparison.LIKE && Double.isNaN(numericValue)) {
+            return new long[0];
+        }
+        double inf = Double.POSITIVE_INFINITY;
+        return switch (comparison) {
+            case EQUAL -> index.lookupEqual(value);
+            case GREATER -> index.lookupRange(numericValue, false, inf, true);
+            case GREATER_EQUAL -> index.lookupRange(numericValue, true, inf, true);
+            case LESS -> index.lookupRange(-inf, true, numericValue, false);
+            case LESS_EQUAL -> index.lookupRange(-inf, true, numericValue, true);
+            default -> null;
+        };
+    }
+
+    @Override
+    void markColumnsUsed(boolean[] used) {
+        if (columnIndex >= 0 && columnIndex < used.length) used[columnIndex] = true;
+    }
+
+    @Override
+    double selectivity() {
+        if (bound && columnIndex == -1) return 0;
+        return switch (comparison) {
+            case EQUAL -> 0.1;
+            case NOT_EQUAL -> 0.9;
+            case GREATER, LESS, GREATER_EQUAL, LESS_EQUAL -> 0.33;
+            case LIKE -> 0.25;
+            case UNKNOWN -> 0;
+        };
+    }
+
+    @Override
+    double cost() {
+        if (bound && columnIndex == -1) return 0.1;
+        return comparison == Comparison.LIKE ? 1 + value.length() : 1;
+    }
+
+    private boolean equalsIgnoreCase(String rowValue, int start, int end) {
+        return end - start == value.length() && rowValue.regionMatches(true, start, value, 0, value.length());
+    }
+
+    private boolean containsIgnoreCase(String rowValue, int start, int end) {
+        for (int i = start; i <= end - value.length(); i++) {
+            if (rowValue.regionMatches(true, i, value, 0, value.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Parses [+-]?\d+(\.\d+)? without allocating; NaN for anything else
+    static double parseNumber(String text, int start, int end) {
+        int i = start;
+        boolean negative = i < end && text.charAt(i) == '-';
+        if (negative || (i < end && text.charAt(i) == '+')) i++;
+
+        int integerStart = i;
+        while (i < end && isDigit(text.charAt(i))) i++;
+        if (i == integerStart) return Double.NaN;
+
+        int integerEnd = i;
+        if (i < end) {
+            if (text.charAt(i) != '.') return Double.NaN;
+            int fractionStart = ++i;
+            while (i < end && isDigit(text.charAt(i))) i++;
+            if (i == fractionStart || i != end) return Double.NaN;
+        }
+        int fractionDigits = end == integerEnd ? 0 : end - integerEnd - 1;
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        for (int k = integerStart; k < end; k++) {
+            char c = text.charAt(k);
+            if (c == '.') continue;
+            mantissa = mantissa * 10 + (c - '0');
+            if (mantissa != 0) significantDigits++;
+            if (significantDigits > 15 || fractionDigits > 22) {
+                // Beyond what a long / power of ten converts exactly, let the JDK round it
+                return Double.parseDouble(text.substring(start, end));
+            }
+        }
+
+        double result = fractionDigits == 0 ? mantissa : mantissa / Math.pow(10, fractionDigits);
+        return negative ? -result : result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
     private int findColumnIndex(String[] firstColumnList, String columnName) {
         for (int i = 0; i < firstColumnList.length; i++) {
             if (firstColumnList[i].equalsIgnoreCase(columnName)) {
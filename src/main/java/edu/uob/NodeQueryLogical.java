@@ -1,26 +1,158 @@
 package edu.uob;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
 public class NodeQueryLogical extends NodeQuery {
-    String logicalOperator;
+    LogicalOperator logicalOperator;
     NodeQuery left;
     NodeQuery right;
 
+    enum LogicalOperator { AND, OR }
+
     public NodeQueryLogical(String logicalOperator, NodeQuery left, NodeQuery right) {
+        this(LogicalOperator.valueOf(logicalOperator.toUpperCase(Locale.ROOT)), left, right);
+    }
+
+    NodeQueryLogical(LogicalOperator logicalOperator, NodeQuery left, NodeQuery right) {
         this.logicalOperator = logicalOperator;
         this.left = left;
         this.right = right;
     }
 
     @Override
-    public boolean evaluate(String[] row, String[] firstColumnList) {
-        boolean leftResult = left.evaluate(row, firstColumnList);
-        boolean rightResult = right.evaluate(row, firstColumnList);
+    public NodeQuery withParameters(Iterator<String> parameters) {
+        NodeQuery filledLeft = left.withParameters(parameters);
+        return new NodeQueryLogical(logicalOperator, filledLeft, right.withParameters(parameters));
+    }
+
+    // Binds every operand of a chain of the same operator (a AND b AND c) and rebuilds the chain
+    // so operands that are cheap or likely to decide the result on their own run first
+    @Override
+    public NodeQuery bind(String[] firstColumnList) {
+        List<NodeQuery> operands = new ArrayList<>();
+        collectOperands(this, operands, firstColumnList);
+
+        Comparator<NodeQuery> order = logicalOperator == LogicalOperator.AND
+                ? Comparator.comparingDouble(operand -> operand.cost() / Math.max(1e-9, 1 - operand.selectivity()))
+                : Comparator.comparingDouble(operand -> operand.cost() / Math.max(1e-9, operand.selectivity()));
+        operands.sort(order);
+
+        NodeQuery chain = operands.get(0);
+        for (int i = 1; i < operands.size(); i++) {
+            chain = new NodeQueryLogical(logicalOperator, chain, operands.get(i));
+        }
+        return chain;
+    }
 
-        if (logicalOperator.equalsIgnoreCase("AND")) {
-            return leftResult && rightResult;
-        } else if (logicalOperator.equalsIgnoreCase("OR")) {
-            return leftResult || rightResult;
+    private void collectOperands(NodeQuery node, List<NodeQuery> operands, String[] firstColumnList) {
+        if (node instanceof NodeQueryLogical logical && logical.logicalOperator == logicalOperator) {
+            collectOperands(logical.left, operands, firstColumnList);
+            collectOperands(logical.right, operands, firstColumnList);
+        } else {
+            operands.add(node.bind(firstColumnList));
         }
-        return false;
+    }
+
+    @Override
+    public boolean evaluate(String[] row) {
+        if (logicalOperator == LogicalOperator.AND) {
+            return left.evaluate(row) && right.evaluate(row);
+        }
+        return left.evaluate(row) || right.evaluate(row);
+    }
+
+    @Override
+    void evaluateRange(Table table, int from, int to, boolean[] matches, boolean[] open) {
+        left.evaluateRange(table, from, to, matches, open);
+        // As in evaluate(), the right operand only runs on rows the left one did not decide:
+        // those it let through for AND, those it rejected for OR. Its result is then the answer.
+        boolean undecidedResult = logicalOperator == LogicalOperator.AND;
+        boolean[] undecided = new boolean[to - from];
+        boolean anyUndecided = false;
+        for (int i = 0; i < undecided.length; i++) {
+            undecided[i] = (open == null || open[i]) && matches[i] == undecidedResult;
+            anyUndecided |= undecided[i];
+        }
+        if (anyUndecided) {
+            right.evaluateRange(table, from, to, matches, undecided);
+        }
+    }
+
+    @Override
+    long[] idRange() {
+        long[] leftRange = left.idRange();
+        long[] rightRange = right.idRange();
+        if (logicalOperator == LogicalOperator.AND) {
+            if (leftRange == null) return rightRange;
+            if (rightRange == null) return leftRange;
+            return new long[] {Math.max(leftRange[0], rightRange[0]), Math.min(leftRange[1], rightRange[1])};
+        }
+        if (leftRange == null || rightRange == null) return null;
+        return new long[] {Math.min(leftRange[0], rightRange[0]), Math.max(leftRange[1], rightRange[1])};
+    }
+
+    @Override
+    long[] indexedIds(SecondaryIndex[] indexes) {
+        long[] leftIds = left.indexedIds(indexes);
+        long[] rightIds = right.indexedIds(indexes);
+        if (logicalOperator == LogicalOperator.AND) {
+            if (leftIds == null) return rightIds;
+            if (rightIds == null) return leftIds;
+            return merge(leftIds, rightIds, true);
+        }
+        if (leftIds == null || rightIds == null) return null;
+        return merge(leftIds, rightIds, false);
+    }
+
+    // Intersection or union of two sorted id lists, without duplicates
+    private static long[] merge(long[] left, long[] right, boolean intersect) {
+        long[] merged = new long[intersect ? Math.min(left.length, right.length) : left.length + right.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < left.length || j < right.length) {
+            long next;
+            boolean inBoth = i < left.length && j < right.length && left[i] == right[j];
+            if (j >= right.length || (i < left.length && left[i] < right[j])) {
+                next = left[i++];
+            } else if (inBoth) {
+                next = left[i++];
+                j++;
+            } else {
+                next = right[j++];
+            }
+            if ((inBoth || !intersect) && (size == 0 || merged[size - 1] != next)) {
+                merged[size++] = next;
+            }
+        }
+        return Arrays.copyOf(merged, size);
+    }
+
+    @Override
+    void markColumnsUsed(boolean[] used) {
+        left.markColumnsUsed(used);
+        right.markColumnsUsed(used);
+    }
+
+    @Override
+    double selectivity() {
+        double leftSelectivity = left.selectivity();
+        double rightSelectivity = right.selectivity();
+        if (logicalOperator == LogicalOperator.AND) {
+            return leftSelectivity * rightSelectivity;
+        }
+        return leftSelectivity + rightSelectivity - leftSelectivity * rightSelectivity;
+    }
+
+    @Override
+    double cost() {
+        // The right operand only runs when the left one did not decide the result
+        double rightRuns = logicalOperator == LogicalOperator.AND ? left.selectivity() : 1 - left.selectivity();
+        return left.cost() + rightRuns * right.cost();
     }
 }
@@ -0,0 +1,73 @@
+package edu.uob;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Parsed commands by database and statement text, so statements sent again skip tokenising and
+// parsing. Only commands that can be rerun are cached, and each execution runs on a copy.
+public class PlanCache {
+    private static int capacity = Integer.getInteger("db.plan.cacheSize", 1024);
+
+    // Access-ordered, so iteration starts at the least recently used plan
+    private final LinkedHashMap<String, DBCmd> plans = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+
+    public static void setCapacity(int plans) {
+        capacity = plans;
+    }
+
+    public synchronized DBCmd get(String databaseName, String statement) {
+        DBCmd plan = plans.get(key(databaseName, statement));
+        if (plan == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return plan;
+    }
+
+    public synchronized void put(String databaseName, String statement, DBCmd plan) {
+        plans.put(key(databaseName, statement), plan);
+        Iterator<String> eldest = plans.keySet().iterator();
+        while (plans.size() > capacity && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static String key(String databaseName, String statement) {
+        return databaseName + "\n" + normalize(statement);
+    }
+
+    // Statements that differ only in whitespace outside quotes share a plan
+    static String normalize(String statement) {
+        StringBuilder normalized = new StringBuilder(statement.length());
+        boolean quoted = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < statement.length(); i++) {
+            char c = statement.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            if (c == '\'') {
+                quoted = !quoted;
+            }
+            normalized.append(c);
+        }
+        return normalized.toString();
+    }
+}
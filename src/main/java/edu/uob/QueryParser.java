@@ -9,6 +9,7 @@ import java.util.Stack;
 public class QueryParser {
     private int index = 0;
     private final List<String> values = new ArrayList<>();
+    private final List<List<String>> valueRows = new ArrayList<>();
 
     private final List<TokenType> tokenTypes;
     private final List<String> tokens;
@@ -17,20 +18,22 @@ public class QueryParser {
 
     private String tableName;
     private String databaseName;
+    private String indexName;
+    private boolean columnar;
     private List<String> columnNames = new ArrayList<>();
+    private final List<ColumnType> columnTypes = new ArrayList<>();
+    private String fileName;
+    private String statementName;
+    private String preparedStatement;
     private String table1;
     private String table2;
     private String column1;
     private String column2;
 
     public QueryParser(String query) {
-        QueryTokeniser tokeniser = new QueryTokeniser(query);
-        List<String> rawTokens = tokeniser.getTokens();
-
-        QueryLexer lexer = new QueryLexer(rawTokens);
-        this.tokenTypes = lexer.getTokenTypes();
-        this.tokens = rawTokens;
-        lexer.tokenize();
+        QueryScanner scanner = new QueryScanner(query);
+        this.tokens = scanner.getTokens();
+        this.tokenTypes = scanner.getTokenTypes();
     }
 
     //-------------  GENERAL SHARED FUNCTIONS ---------------------
@@ -54,11 +57,9 @@ public class QueryParser {
         if (value.equals("*")) {return value;}
         if ("TRUE".equalsIgnoreCase(value) || "FALSE".equalsIgnoreCase(value)) {return value.toUpperCase();}
 
+        // The scanner only types words of letters, digits and _ as identifiers
         for (TokenType expected : expectedTypes) {
             if (token == expected) {
-                if (expected == TokenType.IDENTIFIER && !value.matches("[a-zA-Z0-9_]+")) {
-                    throw new IOException("[ERROR] Invalid name format: " + value);
-                }
                 return value;
             }
         }
@@ -118,17 +119,25 @@ public class QueryParser {
 
     // ------------------- GETTERS AND BOOLEANS ---------------------
     public String getDatabaseName() {return databaseName;}
+    public String getIndexName() {return indexName;}
     public String getTableName() {return tableName;}
     public List<String> getColumnNames() {return columnNames;}
+    public List<ColumnType> getColumnTypes() {return columnTypes;}
     public List<String> getValues() {return values;}
+    public List<List<String>> getValueRows() {return valueRows;}
+    public String getFileName() {return fileName;}
     public String getAlterType() {return alterType;}
     public String getTable1() { return table1; }
     public String getTable2() { return table2; }
     public String getColumn1() { return column1; }
     public String getColumn2() { return column2; }
+    public String getStatementName() {return statementName;}
+    public String getPreparedStatement() {return preparedStatement;}
     public List<String> getConditionTokens() {return conditionTokens;}
 
     public boolean isDropTable() {return tableName != null;}
+    public boolean isDropIndex() {return indexName != null;}
+    public boolean isColumnar() {return columnar;}
     public boolean hasWhereClause() {return conditionTokens != null && !conditionTokens.isEmpty();}
 
     // ------------------- PARSE USE ---------------------
@@ -148,6 +157,7 @@ public class QueryParser {
 
         tableName = expect(TokenType.IDENTIFIER);
         columnNames.clear();
+        columnTypes.clear();
 
 
         if (matchTokens(TokenType.SYMBOL, "(")) {
@@ -161,14 +171,38 @@ public class QueryParser {
                 } else {
                     throw new IOException("[ERROR] Cannot use keywords column name: " + column);
                 }
+                // Optional type after the name; untyped columns take the type of the first value inserted
+                ColumnType type = null;
+                if (matchTokens(TokenType.IDENTIFIER, "INTEGER", "FLOAT", "BOOLEAN", "STRING")) {
+                    type = ColumnType.fromName(tokens.get(index - 1));
+                }
+                columnTypes.add(type);
             } while (matchTokens(TokenType.SYMBOL, ","));
 
             expectValue(TokenType.SYMBOL, ")");
         }
+        // Optional storage format, not a reserved word
+        columnar = matchTokens(TokenType.IDENTIFIER, "COLUMNAR");
 
         validateEndSemicolon();
     }
 
+    // ------------------- PARSE CREATE INDEX ---------------------
+    public void parseCreateIndex() throws IOException {
+        if (!matchTokens(TokenType.KEYWORD, "CREATE")) throw new IOException("[ERROR] Expected CREATE.");
+        if (!matchTokens(TokenType.KEYWORD, "INDEX")) throw new IOException("[ERROR] Expected INDEX.");
+
+        indexName = expect(TokenType.IDENTIFIER);
+        if (!matchTokens(TokenType.KEYWORD, "ON")) throw new IOException("[ERROR] Expected ON.");
+        tableName = expect(TokenType.IDENTIFIER);
+
+        expectValue(TokenType.SYMBOL, "(");
+        columnNames.clear();
+        columnNames.add(expect(TokenType.IDENTIFIER));
+        expectValue(TokenType.SYMBOL, ")");
+        validateEndSemicolon();
+    }
+
     // ------------------- PARSE CREATE DATABASE ---------------------
     public String parseCreateDB() throws IOException {
         if (!matchTokens(TokenType.KEYWORD, "CREATE")) throw new IOException("[ERROR] Expected CREATE.");
@@ -186,14 +220,32 @@ public class QueryParser {
         tableName = expect(TokenType.IDENTIFIER);
         if (!matchTokens(TokenType.KEYWORD, "VALUES")) throw new IOException("[ERROR] Expected VALUES.");
 
-        expectValue(TokenType.SYMBOL, "(");
-        values.clear();
+        // One or more rows: VALUES (...), (...)
+        valueRows.clear();
         do {
-            values.add(expect(TokenType.STRING, TokenType.NUMBER, TokenType.IDENTIFIER));
-
+            expectValue(TokenType.SYMBOL, "(");
+            List<String> row = new ArrayList<>();
+            do {
+                row.add(expect(TokenType.STRING, TokenType.NUMBER, TokenType.IDENTIFIER, TokenType.PARAMETER));
+            } while (matchTokens(TokenType.SYMBOL, ","));
+            expectValue(TokenType.SYMBOL, ")");
+            valueRows.add(row);
         } while (matchTokens(TokenType.SYMBOL, ","));
 
-        expectValue(TokenType.SYMBOL, ")");
+        validateEndSemicolon();
+    }
+
+    // ------------------- PARSE LOAD DATA ---------------------
+    // LOAD DATA FROM 'file' INTO table; LOAD and DATA are not reserved words
+    public void parseLoad() throws IOException {
+        if (!matchTokens(TokenType.IDENTIFIER, "LOAD")) throw new IOException("[ERROR] Expected LOAD.");
+        if (!matchTokens(TokenType.IDENTIFIER, "DATA")) throw new IOException("[ERROR] Expected DATA.");
+        if (!matchTokens(TokenType.KEYWORD, "FROM")) throw new IOException("[ERROR] Expected FROM.");
+        String quotedName = expect(TokenType.STRING);
+        if (!quotedName.startsWith("'")) throw new IOException("[ERROR] Expected a quoted file name.");
+        fileName = quotedName.substring(1, quotedName.length() - 1);
+        if (!matchTokens(TokenType.KEYWORD, "INTO")) throw new IOException("[ERROR] Expected INTO.");
+        tableName = expect(TokenType.IDENTIFIER);
         validateEndSemicolon();
     }
 
@@ -221,12 +273,15 @@ public class QueryParser {
     public void parseDrop() throws IOException {
         if (!matchTokens(TokenType.KEYWORD, "DROP")) throw new IOException("[ERROR] Expected DROP.");
         String dropType = expect(TokenType.KEYWORD);
-        if (!dropType.equalsIgnoreCase("TABLE") && !dropType.equalsIgnoreCase("DATABASE")) {
-            throw new IOException("[ERROR] Expected TABLE or DATABASE in DROP command.");
+        if (!dropType.equalsIgnoreCase("TABLE") && !dropType.equalsIgnoreCase("DATABASE")
+                && !dropType.equalsIgnoreCase("INDEX")) {
+            throw new IOException("[ERROR] Expected TABLE, DATABASE or INDEX in DROP command.");
         }
 
         if (dropType.equalsIgnoreCase("TABLE")) {
             tableName = expect(TokenType.IDENTIFIER);
+        } else if (dropType.equalsIgnoreCase("INDEX")) {
+            indexName = expect(TokenType.IDENTIFIER);
         } else {
             databaseName = expect(TokenType.IDENTIFIER);
         }
@@ -286,18 +341,19 @@ public class QueryParser {
             throw new IOException("[ERROR] Expected UPDATE.");
         }
         tableName = expect(TokenType.IDENTIFIER);
-        if (tableName.equals("id")) {
-            throw new IOException("[ERROR] Cannot update ID column.");
-        }
         if (!matchTokens(TokenType.KEYWORD, "SET")) {
             throw new IOException("[ERROR] Expected SET.");
         }
         columnNames.clear();
         boolean moreColumns = true;
         while (moreColumns) {
-            columnNames.add(expect(TokenType.IDENTIFIER));
+            String column = expect(TokenType.IDENTIFIER);
+            if (column.equalsIgnoreCase("id")) {
+                throw new IOException("[ERROR] Cannot update ID column.");
+            }
+            columnNames.add(column);
             expectValue(TokenType.SYMBOL, "=");
-            values.add(expect(TokenType.NUMBER, TokenType.STRING, TokenType.IDENTIFIER));
+            values.add(expect(TokenType.NUMBER, TokenType.STRING, TokenType.IDENTIFIER, TokenType.PARAMETER));
 
             moreColumns = matchTokens(TokenType.SYMBOL, ",");
         }
@@ -322,4 +378,29 @@ public class QueryParser {
         }
         validateEndSemicolon();
     }
+
+    // ------------------- PARSE PREPARE ---------------------
+    // PREPARE name AS statement; where the statement may use ? for values. PREPARE, AS, EXECUTE
+    // and USING are not reserved words.
+    public void parsePrepare() throws IOException {
+        if (!matchTokens(TokenType.IDENTIFIER, "PREPARE")) throw new IOException("[ERROR] Expected PREPARE.");
+        statementName = expect(TokenType.IDENTIFIER);
+        if (!matchTokens(TokenType.IDENTIFIER, "AS")) throw new IOException("[ERROR] Expected AS.");
+        if (index >= tokens.size()) throw new IOException("[ERROR] Expected a statement to prepare.");
+        preparedStatement = String.join(" ", tokens.subList(index, tokens.size()));
+        index = tokens.size();
+    }
+
+    // ------------------- PARSE EXECUTE ---------------------
+    public void parseExecute() throws IOException {
+        if (!matchTokens(TokenType.IDENTIFIER, "EXECUTE")) throw new IOException("[ERROR] Expected EXECUTE.");
+        statementName = expect(TokenType.IDENTIFIER);
+        values.clear();
+        if (matchTokens(TokenType.IDENTIFIER, "USING")) {
+            do {
+                values.add(expect(TokenType.STRING, TokenType.NUMBER, TokenType.IDENTIFIER));
+            } while (matchTokens(TokenType.SYMBOL, ","));
+        }
+        validateEndSemicolon();
+    }
 }
@@ -0,0 +1,204 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits a query into tokens and classifies them in one pass over the text. Quoted strings keep
+// their quotes, and operators and the symbols ( ) , ; * = ? are tokens whether or not they are
+// spaced out, so "WHERE(mark>=60)" scans the same as "WHERE ( mark >= 60 )".
+public class QueryScanner {
+    private static final String[] KEYWORDS = {"USE", "SELECT", "FROM", "WHERE", "SET", "INSERT", "UPDATE",
+            "DELETE", "CREATE", "DROP", "TABLE", "DATABASE", "ALTER", "INTO", "VALUES", "ADD", "JOIN", "ON", "INDEX"};
+    private static final String[] LOGICAL_OPERATORS = {"AND", "OR"};
+    // Single-character symbol tokens by character, so scanning them allocates nothing
+    private static final String[] SYMBOLS = new String[128];
+
+    // Reserved words by a hash of their upper-case letters. The multiplier and table size are picked
+    // when the class loads so that no two words share a slot: a word is reserved only if it equals
+    // the one word in its slot, so classifying it takes one hash and at most one comparison.
+    private static final int RESERVED_BITS;
+    private static final int RESERVED_MULTIPLIER;
+    private static final String[] RESERVED_WORDS;
+    private static final TokenType[] RESERVED_TYPES;
+
+    static {
+        int bits = 5;
+        int multiplier = 0x9E3779B9;
+        while (!isPerfectHash(bits, multiplier)) {
+            multiplier += 2;
+            if (multiplier == 0x9E3779B9 + 2000) {
+                bits++;
+                multiplier = 0x9E3779B9;
+            }
+        }
+        RESERVED_BITS = bits;
+        RESERVED_MULTIPLIER = multiplier;
+        RESERVED_WORDS = new String[1 << bits];
+        RESERVED_TYPES = new TokenType[1 << bits];
+        for (String keyword : KEYWORDS) {
+            addReserved(keyword, TokenType.KEYWORD);
+        }
+        for (String operator : LOGICAL_OPERATORS) {
+            addReserved(operator, TokenType.LOGICAL_OPERATOR);
+        }
+        for (char symbol : "(),;*".toCharArray()) {
+            SYMBOLS[symbol] = String.valueOf(symbol);
+        }
+    }
+
+    private final String query;
+    private final List<String> tokens = new ArrayList<>();
+    private final List<TokenType> tokenTypes = new ArrayList<>();
+
+    public QueryScanner(String query) {
+        this.query = query;
+        scan();
+    }
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    public List<TokenType> getTokenTypes() {
+        return tokenTypes;
+    }
+
+    private void scan() {
+        int length = query.length();
+        int i = 0;
+        while (i < length) {
+            char c = query.charAt(i);
+            boolean equalsNext = i + 1 < length && query.charAt(i + 1) == '=';
+            switch (c) {
+                case '\'' -> {
+                    // An unterminated string runs to the end of the query
+                    int end = query.indexOf('\'', i + 1);
+                    if (end < 0) {
+                        add(query.substring(i) + "'", TokenType.STRING);
+                        return;
+                    }
+                    add(query.substring(i, end + 1), TokenType.STRING);
+                    i = end + 1;
+                }
+                case '<' -> i = addOperator(i, equalsNext ? "<=" : "<");
+                case '>' -> i = addOperator(i, equalsNext ? ">=" : ">");
+                case '=' -> {
+                    if (equalsNext) {
+                        i = addOperator(i, "==");
+                    } else {
+                        add("=", TokenType.SYMBOL);
+                        i++;
+                    }
+                }
+                case '!' -> i = equalsNext ? addOperator(i, "!=") : scanWord(i);
+                case '(', ')', ',', ';', '*' -> {
+                    add(SYMBOLS[c], TokenType.SYMBOL);
+                    i++;
+                }
+                case '?' -> {
+                    add("?", TokenType.PARAMETER);
+                    i++;
+                }
+                default -> i = c <= ' ' ? i + 1 : scanWord(i);
+            }
+        }
+    }
+
+    private int addOperator(int start, String operator) {
+        add(operator, TokenType.OPERATOR);
+        return start + operator.length();
+    }
+
+    // Words run until whitespace, a quote or the start of another token. The reserved word hash
+    // is worked out along the way, so classifying the word does not look at it again.
+    private int scanWord(int start) {
+        int length = query.length();
+        int end = start;
+        boolean identifierChars = true;
+        int hash = 0;
+        while (end < length) {
+            char c = query.charAt(end);
+            if (c <= ' ' || c == '\'' || c == '<' || c == '>' || c == '=' || c == '(' || c == ')' || c == ','
+                    || c == ';' || c == '*' || c == '?' || (c == '!' && end + 1 < length && query.charAt(end + 1) == '=')) {
+                break;
+            }
+            identifierChars &= isIdentifierChar(c);
+            hash = hash * 31 + upperCase(c);
+            end++;
+        }
+
+        String word = query.substring(start, end);
+        if (!identifierChars) {
+            if (!isNumber(word)) {
+                throw new IllegalArgumentException("[ERROR] Invalid token detected: " + word);
+            }
+            add(word, TokenType.NUMBER);
+            return end;
+        }
+        int slot = slotOf(hash);
+        String reserved = RESERVED_WORDS[slot];
+        if (reserved != null && reserved.equalsIgnoreCase(word)) {
+            add(word, RESERVED_TYPES[slot]);
+        } else {
+            add(word, isNumber(word) ? TokenType.NUMBER : TokenType.IDENTIFIER);
+        }
+        return end;
+    }
+
+    private void add(String token, TokenType type) {
+        tokens.add(token);
+        tokenTypes.add(type);
+    }
+
+    private static boolean isPerfectHash(int bits, int multiplier) {
+        boolean[] used = new boolean[1 << bits];
+        for (String[] words : new String[][] {KEYWORDS, LOGICAL_OPERATORS}) {
+            for (String word : words) {
+                int slot = (hashOf(word) * multiplier) >>> (32 - bits);
+                if (used[slot]) return false;
+                used[slot] = true;
+            }
+        }
+        return true;
+    }
+
+    private static void addReserved(String word, TokenType type) {
+        int slot = slotOf(hashOf(word));
+        RESERVED_WORDS[slot] = word;
+        RESERVED_TYPES[slot] = type;
+    }
+
+    private static int slotOf(int hash) {
+        return (hash * RESERVED_MULTIPLIER) >>> (32 - RESERVED_BITS);
+    }
+
+    private static int hashOf(String word) {
+        int hash = 0;
+        for (int i = 0; i < word.length(); i++) {
+            hash = hash * 31 + upperCase(word.charAt(i));
+        }
+        return hash;
+    }
+
+    private static char upperCase(char c) {
+        return c >= 'a' && c <= 'z' ? (char) (c - ('a' - 'A')) : c;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // An optional sign, digits, and optionally a point followed by more digits
+    private static boolean isNumber(String word) {
+        int start = word.startsWith("+") || word.startsWith("-") ? 1 : 0;
+        int point = skipDigits(word, start);
+        if (point == start) return false;
+        if (point == word.length()) return true;
+        return word.charAt(point) == '.' && skipDigits(word, point + 1) == word.length() && point + 1 < word.length();
+    }
+
+    private static int skipDigits(String word, int i) {
+        while (i < word.length() && word.charAt(i) >= '0' && word.charAt(i) <= '9') i++;
+        return i;
+    }
+}
@@ -1,15 +1,40 @@
 package edu.uob;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 public class ReadWrite {
     private final String storageFolderPath = Paths.get("databases").toAbsolutePath().toString();
-    private static String currentDatabase = null;
+    private String currentDatabase = null;
+    private final TableCache tableCache = TableCache.getInstance();
+    // fsync table files after every write, and the database folder after a table is replaced;
+    // off by default, enable with -Ddb.fsync=true. Committed changes are in the log either way.
+    private static boolean syncTableFiles = Boolean.getBoolean("db.fsync");
+
+    public interface RowVisitor {
+        void visit(String[] row) throws IOException;
+    }
 
     public ReadWrite() {
     }
@@ -18,6 +43,10 @@ public class ReadWrite {
         currentDatabase = dbName;
     }
 
+    public static void setSyncTableFiles(boolean sync) {
+        syncTableFiles = sync;
+    }
+
     private String getTablePath(String tableName) {
         if (currentDatabase == null) {
             throw new IllegalStateException("[ERROR] No database selected.");
@@ -25,32 +54,651 @@ public class ReadWrite {
         return storageFolderPath + File.separator + currentDatabase + File.separator + tableName + ".tab";
     }
 
-    public String writeTableToDB(String tableName, List<String> data) {
-        String tablePath = getTablePath(tableName);
-        File tableFile = new File(tablePath);
+    // Streams the table to a temp file in the database folder and renames it over the old file,
+    // so readers and a crash only ever see the old or the new table, never a half-written one
+    public String writeTable(String tableName, Table table) {
+        Path tablePath = Paths.get(getTablePath(tableName));
+
+        if (!Files.exists(tablePath)) {
+            return "[ERROR] Table '" + tableName + "' does not exist.";
+        }
+
+        List<long[]> indexEntries = new ArrayList<>(table.getRowCount());
+        Path tempPath = null;
+        try {
+            tempPath = Files.createTempFile(getDatabaseFolder(), tableName + "-", ".tmp");
+            CRC32 checksum = new CRC32();
+            long offset;
+            // A table keeps the format it was created with
+            if (ColumnarFormat.isColumnar(tablePath)) {
+                try (OutputStream out = new BufferedOutputStream(
+                        new CheckedOutputStream(Files.newOutputStream(tempPath), checksum))) {
+                    offset = ColumnarFormat.write(out, table.getHeaderFields(), table.getRows());
+                }
+                List<String[]> rows = table.getRows();
+                for (int i = 0; i < rows.size(); i++) {
+                    long id = IdIndex.parseId(rows.get(i)[0]);
+                    if (id >= 0) {
+                        indexEntries.add(new long[] {id, i});
+                    }
+                }
+            } else {
+                try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                        new CheckedOutputStream(Files.newOutputStream(tempPath), checksum), StandardCharsets.UTF_8))) {
+                    offset = writeRow(writer, table.getHeaderFields());
+                    for (String[] row : table.getRows()) {
+                        long id = IdIndex.parseId(row[0]);
+                        if (id >= 0) {
+                            indexEntries.add(new long[] {id, offset});
+                        }
+                        offset += writeRow(writer, row);
+                    }
+                }
+            }
+            // Once the record is logged, recovery takes a missing temp file to mean it was renamed,
+            // so its contents must be on disk before then whether or not db.fsync is set
+            force(tempPath);
+            if (syncTableFiles) {
+                forceDirectory(getDatabaseFolder());
+            }
+
+            String tempFileName = tempPath.getFileName().toString();
+            WriteAheadLog log = WriteAheadLog.forDatabase(getDatabaseFolder());
+            log.logReplace(tableName, tempFileName, offset, checksum.getValue());
+            boolean renamed = false;
+            try {
+                Files.move(tempPath, tablePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                renamed = true;
+                if (syncTableFiles) {
+                    forceDirectory(getDatabaseFolder());
+                }
+            } finally {
+                log.applied(tablePath);
+                if (!renamed && !abandonReplace(log, tableName, tempFileName)) {
+                    // Recovery would take the missing temp file for a finished rename
+                    tempPath = null;
+                }
+            }
+
+            tableCache.put(tablePath.toString(), table);
+            IdIndex idIndex = new IdIndex(tablePath);
+            try {
+                idIndex.write(indexEntries, offset);
+            } catch (IOException e) {
+                deleteStaleIndex(idIndex);
+            }
+            rebuildSecondaryIndexes(tableName, table, offset);
+            return "[OK]";
+        } catch (IOException e) {
+            tableCache.invalidate(tablePath.toString());
+            return "[ERROR] Could not update table: " + e.getMessage();
+        } finally {
+            deleteTempFile(tempPath);
+        }
+    }
+
+    // Returns the number of bytes written
+    private int writeRow(Writer writer, String[] row) throws IOException {
+        int bytes = System.lineSeparator().length() + Math.max(0, row.length - 1);
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) writer.write('\t');
+            writer.write(row[i]);
+            bytes += IdIndex.utf8Length(row[i]);
+        }
+        writer.write(System.lineSeparator());
+        return bytes;
+    }
+
+    private void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    // Makes a rename durable. Not every platform can open a directory, and there is nothing
+    // more we can do on those, so failures are ignored.
+    private void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) { }
+    }
+
+    // Records that a logged rename did not happen, so the temp file can be deleted
+    private boolean abandonReplace(WriteAheadLog log, String tableName, String tempFileName) {
+        try {
+            log.logAbandonReplace(tableName, tempFileName);
+            log.applied(null);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void deleteTempFile(Path tempPath) {
+        if (tempPath == null) return;
+        try {
+            Files.deleteIfExists(tempPath);
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to remove temporary file: " + tempPath.getFileName());
+        }
+    }
 
-        if (!tableFile.exists()) {
+    public String appendRowsToTable(String tableName, List<String[]> rows) {
+        Path tablePath = Paths.get(getTablePath(tableName));
+
+        if (!Files.exists(tablePath)) {
             return "[ERROR] Table '" + tableName + "' does not exist.";
         }
+        try {
+            if (ColumnarFormat.isColumnar(tablePath)) {
+                return appendByRewriting(tableName, rows);
+            }
+        } catch (IOException e) {
+            return "[ERROR] Could not update table: " + e.getMessage();
+        }
 
-        try (FileWriter writer = new FileWriter(tableFile, false)) {
-            for (String line : data) {
-                writer.write(line + System.lineSeparator());
+        try (FileChannel channel = FileChannel.open(tablePath, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long lengthBefore = channel.size();
+            StringBuilder content = new StringBuilder();
+            if (!endsWithNewline(channel)) {
+                content.append(System.lineSeparator());
             }
+
+            List<long[]> indexEntries = new ArrayList<>(rows.size());
+            long offset = lengthBefore + content.length();
+            for (String[] row : rows) {
+                String line = String.join("\t", row) + System.lineSeparator();
+                indexEntries.add(new long[] {IdIndex.parseId(row[0]), offset});
+                offset += IdIndex.utf8Length(line);
+                content.append(line);
+            }
+
+            byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+            WriteAheadLog log = WriteAheadLog.forDatabase(getDatabaseFolder());
+            log.logAppend(tableName, lengthBefore, bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long position = lengthBefore;
+            try {
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                if (syncTableFiles) {
+                    channel.force(false);
+                }
+            } finally {
+                log.applied(tablePath);
+            }
+            tableCache.append(tablePath.toString(), rows);
+            IdIndex idIndex = new IdIndex(tablePath);
+            try {
+                idIndex.append(indexEntries, lengthBefore, position);
+            } catch (IOException e) {
+                deleteStaleIndex(idIndex);
+            }
+            appendToSecondaryIndexes(tableName, rows, lengthBefore, position);
             return "[OK]";
         } catch (IOException e) {
+            tableCache.invalidate(tablePath.toString());
             return "[ERROR] Could not update table: " + e.getMessage();
         }
     }
 
-    public List<String> readTableFromFile(String tableName) {
+    // Columnar files have no room at the end for new rows, so the whole table is written again
+    private String appendByRewriting(String tableName, List<String[]> rows) {
+        Table table = readTable(tableName);
+        if (table == null) {
+            return "[ERROR] Table '" + tableName + "' is empty.";
+        }
+        List<String[]> allRows = new ArrayList<>(table.getRowCount() + rows.size());
+        allRows.addAll(table.getRows());
+        allRows.addAll(rows);
+        return writeTable(tableName, new Table(table.getHeader(), table.getTypes(), allRows));
+    }
+
+    // The table itself was written, so a failed index update only means rebuilding the index later
+    private void deleteStaleIndex(IdIndex idIndex) {
+        try {
+            Files.deleteIfExists(idIndex.getIndexPath());
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to remove stale index: " + idIndex.getIndexPath());
+        }
+    }
+
+    // The header is empty for a table created without columns
+    public String createTable(String tableName, List<String> header, boolean columnar) {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        try {
+            byte[] bytes;
+            if (columnar) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                ColumnarFormat.write(content, header.toArray(new String[0]), List.of());
+                bytes = content.toByteArray();
+            } else {
+                String content = header.isEmpty() ? "" : String.join("\t", header) + "\n";
+                bytes = content.getBytes(StandardCharsets.UTF_8);
+            }
+            WriteAheadLog log = WriteAheadLog.forDatabase(getDatabaseFolder());
+            log.logWrite(tableName, bytes);
+            try {
+                Files.write(tablePath, bytes);
+            } finally {
+                log.applied(tablePath);
+            }
+            evictTable(tableName);
+            return "[OK]";
+        } catch (IOException e) {
+            return "[ERROR] Could not create table.";
+        }
+    }
+
+    public String deleteTable(String tableName) {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        try {
+            WriteAheadLog log = WriteAheadLog.forDatabase(getDatabaseFolder());
+            log.logDelete(tableName);
+            try {
+                Files.delete(tablePath);
+            } finally {
+                log.applied(null);
+            }
+            evictTable(tableName);
+            deleteIndexFiles(tableName);
+            return "[OK]";
+        } catch (IOException e) {
+            return "[ERROR] Could not delete table '" + tableName + "'.";
+        }
+    }
+
+    // Finishes whatever the log of the current database says was committed but may not have
+    // reached the table files, e.g. after a crash, then empties the log
+    public void recover() throws IOException {
+        Set<String> tableNames = WriteAheadLog.replay(getDatabaseFolder());
+        // Whatever temp files the log did not need are left over from interrupted writes
+        try (DirectoryStream<Path> tempFiles = Files.newDirectoryStream(getDatabaseFolder(), "*.tmp")) {
+            for (Path tempPath : tempFiles) {
+                deleteTempFile(tempPath);
+            }
+        }
+
+        if (!tableNames.isEmpty()) {
+            evictDatabase();
+        }
+        for (String tableName : tableNames) {
+            if (tableExists(tableName)) {
+                reindexTable(tableName);
+            } else {
+                deleteIndexFiles(tableName);
+            }
+        }
+        // Also when nothing was replayed, so no torn record is left for new ones to follow
+        WriteAheadLog.clear(getDatabaseFolder());
+    }
+
+    private void reindexTable(String tableName) throws IOException {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        new IdIndex(tablePath).rebuild();
+        Table table = loadTable(tablePath);
+        if (table != null) {
+            rebuildSecondaryIndexes(tableName, table, Files.size(tablePath));
+        }
+    }
+
+    // Before the database folder is deleted
+    public void closeDatabase() {
+        evictDatabase();
+        WriteAheadLog.close(getDatabaseFolder());
+    }
+
+    // Indexes on columns that no longer exist (after ALTER TABLE ... DROP) are removed
+    private void rebuildSecondaryIndexes(String tableName, Table table, long tableLength) {
+        try {
+            for (Path indexPath : SecondaryIndex.findForTable(getDatabaseFolder(), tableName)) {
+                String column = SecondaryIndex.open(indexPath).getColumn();
+                int columnIndex = table.findColumnIndex(column);
+                if (columnIndex == -1) {
+                    SecondaryIndex.delete(indexPath);
+                } else {
+                    SecondaryIndex.build(indexPath, column, columnIndex, table.getRows(), tableLength);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to update indexes of table: " + tableName + ".tab");
+        }
+    }
+
+    private void appendToSecondaryIndexes(String tableName, List<String[]> rows, long lengthBefore, long lengthAfter) {
+        String[] header = readHeader(tableName);
+        try {
+            for (Path indexPath : SecondaryIndex.findForTable(getDatabaseFolder(), tableName)) {
+                SecondaryIndex index = SecondaryIndex.open(indexPath);
+                int columnIndex = header == null ? -1 : Table.findColumnIndex(header, index.getColumn());
+                if (columnIndex == -1) {
+                    SecondaryIndex.delete(indexPath);
+                } else {
+                    index.append(rows, columnIndex, lengthBefore, lengthAfter);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to update indexes of table: " + tableName + ".tab");
+        }
+    }
+
+    public String createIndex(String tableName, String indexName, String column) {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        try {
+            if (SecondaryIndex.findByName(getDatabaseFolder(), indexName) != null) {
+                return "[ERROR] Index '" + indexName + "' already exists.";
+            }
+            Table table = readTable(tableName);
+            if (table == null) {
+                return "[ERROR] Table '" + tableName + "' is empty.";
+            }
+            int columnIndex = table.findColumnIndex(column);
+            if (columnIndex == -1) {
+                return "[ERROR] Column '" + column + "' does not exist in table.";
+            }
+            SecondaryIndex.build(SecondaryIndex.pathFor(getDatabaseFolder(), tableName, indexName),
+                    table.getHeader()[columnIndex], columnIndex, table.getRows(), Files.size(tablePath));
+            return "[OK]";
+        } catch (IOException e) {
+            return "[ERROR] Could not create index: " + e.getMessage();
+        }
+    }
+
+    public String dropIndex(String indexName) {
+        try {
+            Path indexPath = SecondaryIndex.findByName(getDatabaseFolder(), indexName);
+            if (indexPath == null) {
+                return "[ERROR] Index '" + indexName + "' does not exist.";
+            }
+            SecondaryIndex.delete(indexPath);
+            return "[OK]";
+        } catch (IOException e) {
+            return "[ERROR] Could not drop index: " + e.getMessage();
+        }
+    }
+
+    // Secondary indexes of the table by column position, or null if it has none. Indexes that
+    // are out of date with the table file are rebuilt first.
+    private SecondaryIndex[] loadSecondaryIndexes(String tableName, String[] header) throws IOException {
+        List<Path> indexPaths = SecondaryIndex.findForTable(getDatabaseFolder(), tableName);
+        if (indexPaths.isEmpty()) return null;
+
+        long tableLength = getTableSize(tableName);
+        SecondaryIndex[] indexes = new SecondaryIndex[header.length];
+        for (Path indexPath : indexPaths) {
+            SecondaryIndex index = SecondaryIndex.open(indexPath);
+            int columnIndex = Table.findColumnIndex(header, index.getColumn());
+            if (columnIndex == -1) continue;
+            if (index.getTableLength() != tableLength) {
+                Table table = readTable(tableName);
+                if (table == null) return null;
+                index = SecondaryIndex.build(indexPath, index.getColumn(), columnIndex, table.getRows(), tableLength);
+            }
+            indexes[columnIndex] = index;
+        }
+        return indexes;
+    }
+
+    private boolean endsWithNewline(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size == 0) return true;
+
+        ByteBuffer lastByte = ByteBuffer.allocate(1);
+        channel.read(lastByte, size - 1);
+        return lastByte.get(0) == '\n';
+    }
+
+    // Rows with lo <= id <= hi read through the id index, without loading the table
+    public List<String[]> readRowsById(String tableName, long lo, long hi) throws IOException {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        return readRowsAt(tablePath, new IdIndex(tablePath).findOffsets(lo, hi));
+    }
+
+    // Rows with the given sorted ids read through the id index
+    public List<String[]> readRowsById(String tableName, long[] ids) throws IOException {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        return readRowsAt(tablePath, new IdIndex(tablePath).findOffsets(ids));
+    }
+
+    // For a columnar table the index holds row numbers rather than byte offsets
+    private List<String[]> readRowsAt(Path tablePath, List<Long> offsets) throws IOException {
+        if (ColumnarFormat.isColumnar(tablePath)) {
+            return ColumnarFormat.readRows(tablePath, offsets);
+        }
+        List<String[]> rows = new ArrayList<>(offsets.size());
+
+        try (FileChannel channel = FileChannel.open(tablePath, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            for (long offset : offsets) {
+                rows.add(readLineAt(channel, buffer, offset).split("\t"));
+            }
+        }
+        return rows;
+    }
+
+    // Rows that may satisfy a bound condition: every row of the table, unless the table is not
+    // cached and the id index or a secondary index narrows the condition down
+    public List<String[]> readCandidateRows(String tableName, NodeQuery condition) {
+        List<String[]> rows = readIndexedRows(tableName, condition);
+        if (rows != null) return rows;
+
+        Table table = readTable(tableName);
+        return table == null ? List.of() : table.getRows();
+    }
+
+    // Visits every row that satisfies a bound condition (null for all rows). Uncached columnar
+    // tables only read the columns in columnsUsed (null for all), and text tables too big for the
+    // cache are scanned through a memory map decoding only those columns. Other fields of the rows
+    // are then null and the row array is reused between visits.
+    public void scanMatchingRows(String tableName, NodeQuery condition, boolean[] columnsUsed,
+                                 RowVisitor visitor) throws IOException {
+        RowVisitor matchingRows = condition == null ? visitor : row -> {
+            if (condition.evaluate(row)) visitor.visit(row);
+        };
+        List<String[]> rows = readIndexedRows(tableName, condition);
+        if (rows == null && !isCached(tableName)) {
+            Path tablePath = Paths.get(getTablePath(tableName));
+            if (ColumnarFormat.isColumnar(tablePath)) {
+                ColumnarFormat.scan(tablePath, columnsUsed, matchingRows);
+                return;
+            }
+            if (!tableCache.shouldLoad(getTableSize(tableName))) {
+                new MappedTableScanner(tablePath, columnsUsed).scan(matchingRows);
+                return;
+            }
+        }
+        if (rows != null) {
+            for (String[] row : rows) {
+                matchingRows.visit(row);
+            }
+            return;
+        }
+
+        Table table = readTable(tableName);
+        if (table == null) return;
+        boolean[] matches = condition == null ? null : condition.evaluateAll(table);
+        for (int i = 0; i < table.getRowCount(); i++) {
+            if (matches == null || matches[i]) {
+                visitor.visit(table.getRows().get(i));
+            }
+        }
+    }
+
+    // The planner: the id index for conditions on id, then secondary indexes on the other
+    // columns. Null if neither applies and the table has to be scanned.
+    public List<String[]> readIndexedRows(String tableName, NodeQuery condition) {
+        if (condition == null || isCached(tableName)) return null;
+        try {
+            long[] idRange = condition.idRange();
+            if (idRange != null) {
+                return readRowsById(tableName, idRange[0], idRange[1]);
+            }
+            String[] header = readHeader(tableName);
+            SecondaryIndex[] indexes = header == null ? null : loadSecondaryIndexes(tableName, header);
+            long[] ids = indexes == null ? null : condition.indexedIds(indexes);
+            if (ids != null) {
+                return readRowsById(tableName, ids);
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to use indexes of table: " + tableName + ".tab");
+        }
+        return null;
+    }
+
+    private String readLineAt(FileChannel channel, ByteBuffer buffer, long offset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = offset;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    return stripCarriageReturn(line.toString(StandardCharsets.UTF_8));
+                }
+                line.write(b);
+            }
+            position += read;
+        }
+        return stripCarriageReturn(line.toString(StandardCharsets.UTF_8));
+    }
+
+    private String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    public boolean isCached(String tableName) {
+        return tableCache.contains(getTablePath(tableName));
+    }
+
+    public long readHighestId(String tableName) throws IOException {
+        return new IdIndex(Paths.get(getTablePath(tableName))).getHighestId();
+    }
+
+    public void deleteIndexFiles(String tableName) throws IOException {
+        Files.deleteIfExists(new IdIndex(Paths.get(getTablePath(tableName))).getIndexPath());
+        for (Path indexPath : SecondaryIndex.findForTable(getDatabaseFolder(), tableName)) {
+            SecondaryIndex.delete(indexPath);
+        }
+    }
+
+    public void evictTable(String tableName) {
+        tableCache.invalidate(getTablePath(tableName));
+    }
+
+    public void evictDatabase() {
+        tableCache.invalidateDatabase(getDatabaseFolder().toString());
+        SecondaryIndex.evictDatabase(getDatabaseFolder());
+    }
+
+    public boolean tableExists(String tableName) {
+        return new File(getTablePath(tableName)).exists();
+    }
+
+    public Path getDatabaseFolder() {
+        if (currentDatabase == null) {
+            throw new IllegalStateException("[ERROR] No database selected.");
+        }
+        return Paths.get(storageFolderPath, currentDatabase);
+    }
+
+    public long getTableSize(String tableName) {
+        return new File(getTablePath(tableName)).length();
+    }
+
+    public boolean isColumnar(String tableName) throws IOException {
+        return ColumnarFormat.isColumnar(Paths.get(getTablePath(tableName)));
+    }
+
+    // Only for text tables
+    public BufferedReader openTableReader(String tableName) throws IOException {
+        return Files.newBufferedReader(Paths.get(getTablePath(tableName)));
+    }
+
+    // Column names; null if the table does not exist or has no header
+    public String[] readHeader(String tableName) {
+        Table cachedTable = tableCache.get(getTablePath(tableName));
+        if (cachedTable != null) {
+            return cachedTable.getHeader();
+        }
+        String[] headerFields = readHeaderFields(tableName);
+        return headerFields == null ? null : Table.namesOf(headerFields);
+    }
+
+    // Types by column position, null for untyped columns; null if the table has no header
+    public ColumnType[] readColumnTypes(String tableName) {
+        Table cachedTable = tableCache.get(getTablePath(tableName));
+        if (cachedTable != null) {
+            return cachedTable.getTypes();
+        }
+        String[] headerFields = readHeaderFields(tableName);
+        return headerFields == null ? null : Table.typesOf(headerFields);
+    }
+
+    // Whether the table holds any rows, without loading it
+    public boolean hasRows(String tableName) throws IOException {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        Table cachedTable = tableCache.get(tablePath.toString());
+        if (cachedTable != null) {
+            return cachedTable.getRowCount() > 0;
+        }
+        if (ColumnarFormat.isColumnar(tablePath)) {
+            return ColumnarFormat.readRowCount(tablePath) > 0;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(tablePath)) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) return true;
+            }
+            return false;
+        }
+    }
+
+    private String[] readHeaderFields(String tableName) {
+        Path tablePath = Paths.get(getTablePath(tableName));
+        try {
+            if (ColumnarFormat.isColumnar(tablePath)) {
+                return ColumnarFormat.readHeader(tablePath);
+            }
+            try (BufferedReader reader = Files.newBufferedReader(tablePath)) {
+                String header = reader.readLine();
+                return header == null || header.isEmpty() ? null : header.split("\t");
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to read table file: " + tableName + ".tab");
+            return null;
+        }
+    }
+
+    // Returns null if the table does not exist or has no header. The returned table may be
+    // shared with other readers through the cache and must not be modified.
+    public Table readTable(String tableName) {
         String tablePath = getTablePath(tableName);
+        Table cachedTable = tableCache.get(tablePath);
+        if (cachedTable != null) {
+            return cachedTable;
+        }
 
         try {
-            return Files.readAllLines(Paths.get(tablePath));
+            Table table = loadTable(Paths.get(tablePath));
+            if (table != null) {
+                tableCache.put(tablePath, table);
+            }
+            return table;
         } catch (IOException e) {
             System.err.println("[ERROR] Unable to read table file: " + tableName + ".tab");
-            return List.of();
+            return null;
+        }
+    }
+
+    private Table loadTable(Path tablePath) throws IOException {
+        if (ColumnarFormat.isColumnar(tablePath)) {
+            return ColumnarFormat.read(tablePath);
         }
+        return Table.parse(Files.readAllLines(tablePath));
     }
 }
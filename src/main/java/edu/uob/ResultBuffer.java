@@ -0,0 +1,130 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Keeps a command's result so it can be sent on once the command's locks are released, and a slow
+// client never holds up writers. Results are kept in memory up to -Ddb.result.memoryBytes, and
+// larger ones go on to a temp file that is deleted on close.
+public class ResultBuffer implements ResultSink, AutoCloseable {
+    private static long memoryBytes = Long.getLong("db.result.memoryBytes", 4L * 1024 * 1024);
+
+    private static final byte MESSAGE = 0;
+    private static final byte COLUMNS = 1;
+    private static final byte ROW = 2;
+
+    private final ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private DataOutputStream out = new DataOutputStream(memory);
+    private Path spillFile;
+
+    public static void setMemoryBytes(long bytes) {
+        memoryBytes = bytes;
+    }
+
+    @Override
+    public void message(String reply) throws IOException {
+        out.writeByte(MESSAGE);
+        writeString(reply);
+        spillIfFull();
+    }
+
+    @Override
+    public void columns(String[] names, ColumnType[] types) throws IOException {
+        out.writeByte(COLUMNS);
+        out.writeInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            writeString(names[i]);
+            out.writeByte(types[i] == null ? -1 : types[i].ordinal());
+        }
+        spillIfFull();
+    }
+
+    @Override
+    public void row(String[] values) throws IOException {
+        out.writeByte(ROW);
+        out.writeInt(values.length);
+        for (String value : values) {
+            writeString(value);
+        }
+        spillIfFull();
+    }
+
+    // Hands everything kept so far to sink, in the order it arrived
+    public void replayTo(ResultSink sink) throws IOException {
+        out.flush();
+        InputStream stored = spillFile == null ? new ByteArrayInputStream(memory.toByteArray())
+                : new BufferedInputStream(Files.newInputStream(spillFile));
+        try (DataInputStream in = new DataInputStream(stored)) {
+            String[] values = new String[0];
+            while (true) {
+                byte kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (kind == MESSAGE) {
+                    sink.message(readString(in));
+                } else if (kind == COLUMNS) {
+                    String[] names = new String[in.readInt()];
+                    ColumnType[] types = new ColumnType[names.length];
+                    for (int i = 0; i < names.length; i++) {
+                        names[i] = readString(in);
+                        byte type = in.readByte();
+                        types[i] = type < 0 ? null : ColumnType.values()[type];
+                    }
+                    sink.columns(names, types);
+                } else {
+                    int length = in.readInt();
+                    if (values.length != length) {
+                        values = new String[length];
+                    }
+                    for (int i = 0; i < length; i++) {
+                        values[i] = readString(in);
+                    }
+                    sink.row(values);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+        if (spillFile != null) {
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    private void spillIfFull() throws IOException {
+        if (spillFile != null || memory.size() <= memoryBytes) return;
+        spillFile = Files.createTempFile("result-", ".tmp");
+        OutputStream file = new BufferedOutputStream(Files.newOutputStream(spillFile));
+        memory.writeTo(file);
+        memory.reset();
+        out = new DataOutputStream(file);
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
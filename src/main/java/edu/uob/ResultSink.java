@@ -0,0 +1,15 @@
+package edu.uob;
+
+import java.io.IOException;
+
+// Where a command puts what it returns. Commands with a result set call columns() once and then
+// row() for each row in order; every other reply, errors included, goes to message() whole.
+public interface ResultSink {
+    void message(String reply) throws IOException;
+
+    // types holds null for columns without a type
+    void columns(String[] names, ColumnType[] types) throws IOException;
+
+    // The array may be reused by the caller once this returns
+    void row(String[] values) throws IOException;
+}
@@ -0,0 +1,250 @@
+package edu.uob;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+// Index created with CREATE INDEX, stored next to the table as <table>.<index>.sidx:
+// a header line "column<TAB>length of the .tab file it describes" followed by one "id<TAB>value"
+// line per row. In memory values are keyed the way NodeQueryCondition compares them: numbers by
+// value, everything else ignoring case. Equality uses a hash map, ranges a sorted map of numbers.
+public class SecondaryIndex {
+    private static final String EXTENSION = ".sidx";
+    // Indexes kept in memory once opened, until they hold more than this many rows in total
+    private static long cacheRows = Long.getLong("db.index.cacheRows", 1_000_000);
+    // Access-ordered, so iteration starts at the least recently used index
+    private static final LinkedHashMap<Path, SecondaryIndex> LOADED = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Path indexPath;
+    private final String column;
+    private long tableLength;
+    private final Map<Object, List<Long>> hash = new HashMap<>();
+    private final NavigableMap<Double, List<Long>> tree = new TreeMap<>();
+    private long rowCount;
+
+    private SecondaryIndex(Path indexPath, String column, long tableLength) {
+        this.indexPath = indexPath;
+        this.column = column;
+        this.tableLength = tableLength;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public long getTableLength() {
+        return tableLength;
+    }
+
+    public static Path pathFor(Path databaseFolder, String tableName, String indexName) {
+        return databaseFolder.resolve(tableName + "." + indexName + EXTENSION);
+    }
+
+    public static List<Path> findForTable(Path databaseFolder, String tableName) throws IOException {
+        return find(databaseFolder, tableName + ".*" + EXTENSION);
+    }
+
+    // Index names are unique within a database; null if there is no such index
+    public static Path findByName(Path databaseFolder, String indexName) throws IOException {
+        List<Path> paths = find(databaseFolder, "*." + indexName + EXTENSION);
+        return paths.isEmpty() ? null : paths.get(0);
+    }
+
+    private static List<Path> find(Path databaseFolder, String glob) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if (!Files.isDirectory(databaseFolder)) return paths;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(databaseFolder, glob)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    public static void setCacheRows(long rows) {
+        cacheRows = rows;
+    }
+
+    public static SecondaryIndex open(Path indexPath) throws IOException {
+        SecondaryIndex loaded = cached(indexPath);
+        if (loaded != null) return loaded;
+
+        try (BufferedReader reader = Files.newBufferedReader(indexPath)) {
+            String headerLine = reader.readLine();
+            String[] header = headerLine == null ? new String[0] : headerLine.split("\t");
+            if (header.length != 2) {
+                throw new IOException("Corrupt index file: " + indexPath.getFileName());
+            }
+            SecondaryIndex index = new SecondaryIndex(indexPath, header[0], Long.parseLong(header[1]));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                index.add(Long.parseLong(line.substring(0, tab)), line.substring(tab + 1));
+            }
+            remember(indexPath, index);
+            return index;
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IOException("Corrupt index file: " + indexPath.getFileName());
+        }
+    }
+
+    // Indexes column (at columnIndex of each row) from scratch and replaces the file
+    public static SecondaryIndex build(Path indexPath, String column, int columnIndex,
+                                       List<String[]> rows, long tableLength) throws IOException {
+        SecondaryIndex index = new SecondaryIndex(indexPath, column, tableLength);
+        Path tempPath = Files.createTempFile(indexPath.getParent(), "index-", ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath)) {
+            writer.write(index.headerLine());
+            for (String[] row : rows) {
+                long id = IdIndex.parseId(row[0]);
+                if (id < 0 || columnIndex >= row.length) continue;
+                index.add(id, row[columnIndex]);
+                writer.write(id + "\t" + row[columnIndex] + "\n");
+            }
+        }
+        Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        remember(indexPath, index);
+        return index;
+    }
+
+    // Adds rows appended to a table that was tableLengthBefore bytes long. An index that was
+    // already out of date is deleted instead, and rebuilt the next time it is needed.
+    public void append(List<String[]> rows, int columnIndex, long tableLengthBefore, long tableLengthAfter)
+            throws IOException {
+        if (tableLength != tableLengthBefore) {
+            delete(indexPath);
+            return;
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for (String[] row : rows) {
+            long id = IdIndex.parseId(row[0]);
+            if (id < 0 || columnIndex >= row.length) continue;
+            add(id, row[columnIndex]);
+            lines.append(id).append('\t').append(row[columnIndex]).append('\n');
+        }
+        tableLength = tableLengthAfter;
+
+        try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            writeAt(channel, lines.toString(), channel.size());
+            writeAt(channel, headerLine(), 0);
+        } catch (IOException e) {
+            delete(indexPath);
+            throw e;
+        }
+    }
+
+    public static void delete(Path indexPath) throws IOException {
+        synchronized (LOADED) {
+            LOADED.remove(indexPath);
+        }
+        Files.deleteIfExists(indexPath);
+    }
+
+    public static void evictDatabase(Path databaseFolder) {
+        synchronized (LOADED) {
+            LOADED.keySet().removeIf(path -> path.startsWith(databaseFolder));
+        }
+    }
+
+    static boolean isCached(Path indexPath) {
+        return cached(indexPath) != null;
+    }
+
+    private static SecondaryIndex cached(Path indexPath) {
+        synchronized (LOADED) {
+            return LOADED.get(indexPath);
+        }
+    }
+
+    // Least recently used indexes are dropped from memory, never the one just added.
+    // They are read back from their file the next time they are opened.
+    private static void remember(Path indexPath, SecondaryIndex index) {
+        synchronized (LOADED) {
+            LOADED.put(indexPath, index);
+            long rows = 0;
+            for (SecondaryIndex loaded : LOADED.values()) {
+                rows += loaded.rowCount;
+            }
+            Iterator<SecondaryIndex> eldest = LOADED.values().iterator();
+            while (rows > cacheRows && LOADED.size() > 1) {
+                SecondaryIndex evicted = eldest.next();
+                rows -= evicted.rowCount;
+                eldest.remove();
+            }
+        }
+    }
+
+    // Sorted ids of the rows whose value equals literal under NodeQueryCondition's == rules
+    public long[] lookupEqual(String literal) {
+        return toSortedIds(hash.get(keyOf(literal)));
+    }
+
+    // Sorted ids of the rows with a numeric value inside the given bounds
+    public long[] lookupRange(double lo, boolean loInclusive, double hi, boolean hiInclusive) {
+        if (lo > hi) return new long[0];
+        List<Long> ids = new ArrayList<>();
+        for (List<Long> matching : tree.subMap(lo, loInclusive, hi, hiInclusive).values()) {
+            ids.addAll(matching);
+        }
+        return toSortedIds(ids);
+    }
+
+    private void add(long id, String value) {
+        Object key = keyOf(value);
+        hash.computeIfAbsent(key, k -> new ArrayList<>()).add(id);
+        if (key instanceof Double number) {
+            tree.computeIfAbsent(number, k -> new ArrayList<>()).add(id);
+        }
+        rowCount++;
+    }
+
+    private static Object keyOf(String value) {
+        String trimmed = value.trim();
+        double number = NodeQueryCondition.parseNumber(trimmed, 0, trimmed.length());
+        // + 0.0 folds -0 into 0, which compare equal as numbers but not as Double keys
+        // Folded the same way as JoinHashTable.joinKey, matching regionMatches(true, ...) in any locale
+        return Double.isNaN(number) ? trimmed.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT)
+                : Double.valueOf(number + 0.0);
+    }
+
+    private static long[] toSortedIds(List<Long> ids) {
+        if (ids == null) return new long[0];
+        long[] sorted = new long[ids.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = ids.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    // Fixed width, so the length can be rewritten in place after an append
+    private String headerLine() {
+        return column + "\t" + String.format("%019d", tableLength) + "\n";
+    }
+
+    private static void writeAt(FileChannel channel, String text, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rows are shared with the table cache: commands must not modify a row array in place,
+// they build a new Table (reusing unchanged rows) and hand it to ReadWrite.writeTable.
+public class Table {
+    private final String[] header;
+    private final ColumnType[] types;
+    private final List<String[]> rows;
+    // Replaced rather than modified, so readers can use it without taking the lock
+    private volatile TypedColumn[] typedColumns;
+
+    public Table(String[] header, List<String[]> rows) {
+        this(header, new ColumnType[header.length], rows);
+    }
+
+    // types holds null for columns without a type
+    public Table(String[] header, ColumnType[] types, List<String[]> rows) {
+        this.header = header;
+        this.types = types;
+        this.rows = rows;
+    }
+
+    public static Table parse(List<String> lines) {
+        if (lines.isEmpty() || lines.get(0).isEmpty()) {
+            return null;
+        }
+        List<String[]> rows = new ArrayList<>(lines.size());
+        for (int i = 1; i < lines.size(); i++) {
+            rows.add(lines.get(i).split("\t"));
+        }
+        String[] headerFields = lines.get(0).split("\t");
+        return new Table(namesOf(headerFields), typesOf(headerFields), rows);
+    }
+
+    // Fields of a stored header are column names, followed by :TYPE for typed columns
+    public static String[] namesOf(String[] headerFields) {
+        String[] names = new String[headerFields.length];
+        for (int i = 0; i < headerFields.length; i++) {
+            int colon = headerFields[i].indexOf(':');
+            names[i] = colon < 0 ? headerFields[i] : headerFields[i].substring(0, colon);
+        }
+        return names;
+    }
+
+    public static ColumnType[] typesOf(String[] headerFields) {
+        ColumnType[] types = new ColumnType[headerFields.length];
+        for (int i = 0; i < headerFields.length; i++) {
+            int colon = headerFields[i].indexOf(':');
+            types[i] = colon < 0 ? null : ColumnType.fromName(headerFields[i].substring(colon + 1));
+        }
+        return types;
+    }
+
+    public static String[] headerFieldsOf(String[] names, ColumnType[] types) {
+        String[] fields = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            fields[i] = types[i] == null ? names[i] : names[i] + ":" + types[i];
+        }
+        return fields;
+    }
+
+    public String[] getHeader() {
+        return header;
+    }
+
+    public ColumnType[] getTypes() {
+        return types;
+    }
+
+    public String[] getHeaderFields() {
+        return headerFieldsOf(header, types);
+    }
+
+    public List<String[]> getRows() {
+        return rows;
+    }
+
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    public int findColumnIndex(String columnName) {
+        return findColumnIndex(header, columnName);
+    }
+
+    public static int findColumnIndex(String[] header, String columnName) {
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    synchronized void addRows(List<String[]> newRows) {
+        rows.addAll(newRows);
+        typedColumns = null;
+    }
+
+    // The id column holds integers whether or not its header says so; null for untyped columns
+    static ColumnType typeOf(String[] header, ColumnType[] types, int column) {
+        return column == 0 && types[0] == null && header[0].equalsIgnoreCase("id") ? ColumnType.INTEGER : types[column];
+    }
+
+    // Primitive values of an INTEGER or FLOAT column, built on first use; null for other columns
+    TypedColumn typedColumn(int column) {
+        ColumnType type = typeOf(header, types, column);
+        if (type != ColumnType.INTEGER && type != ColumnType.FLOAT) return null;
+
+        TypedColumn[] built = typedColumns;
+        if (built != null && built[column] != null) {
+            return built[column];
+        }
+        synchronized (this) {
+            built = typedColumns == null ? new TypedColumn[header.length] : typedColumns.clone();
+            if (built[column] == null) {
+                built[column] = TypedColumn.build(rows, column, type);
+                typedColumns = built;
+            }
+            return built[column];
+        }
+    }
+
+    long estimateBytes() {
+        long bytes = estimateRowBytes(header);
+        for (String[] row : rows) {
+            bytes += estimateRowBytes(row);
+        }
+        return bytes;
+    }
+
+    static long estimateRowBytes(String[] row) {
+        long bytes = 16 + 4L * row.length;
+        for (String value : row) {
+            bytes += 40 + value.length();
+        }
+        return bytes;
+    }
+}
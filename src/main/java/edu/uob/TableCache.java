@@ -0,0 +1,125 @@
+package edu.uob;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TableCache {
+    private static final TableCache INSTANCE =
+            new TableCache(Long.getLong("db.cache.bytes", Runtime.getRuntime().maxMemory() / 4));
+
+    // Access-ordered, so iteration starts at the least recently used table
+    private final LinkedHashMap<String, CachedTable> tables = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBudget;
+    private long usedBytes;
+    private long hits;
+    private long misses;
+
+    private static class CachedTable {
+        final Table table;
+        long bytes;
+
+        CachedTable(Table table) {
+            this.table = table;
+            this.bytes = table.estimateBytes();
+        }
+    }
+
+    public TableCache(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public static TableCache getInstance() {
+        return INSTANCE;
+    }
+
+    public synchronized void setMemoryBudget(long bytes) {
+        memoryBudget = bytes;
+        evictOverBudget();
+    }
+
+    // Parsed rows take several times the size of their text, so a table read from a larger file
+    // could push most other tables out; callers stream those instead of loading them
+    public synchronized boolean shouldLoad(long fileBytes) {
+        return fileBytes <= memoryBudget / 16;
+    }
+
+    public synchronized Table get(String tablePath) {
+        CachedTable cached = tables.get(tablePath);
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return cached.table;
+    }
+
+    public synchronized boolean contains(String tablePath) {
+        return tables.containsKey(tablePath);
+    }
+
+    public synchronized void put(String tablePath, Table table) {
+        remove(tablePath);
+        CachedTable cached = new CachedTable(table);
+        if (cached.bytes > memoryBudget) return;
+
+        tables.put(tablePath, cached);
+        usedBytes += cached.bytes;
+        evictOverBudget();
+    }
+
+    // Only updates tables that are already cached; an uncached table is loaded on its next read
+    public synchronized void append(String tablePath, List<String[]> rows) {
+        CachedTable cached = tables.get(tablePath);
+        if (cached == null) return;
+
+        cached.table.addRows(rows);
+        for (String[] row : rows) {
+            long rowBytes = Table.estimateRowBytes(row);
+            cached.bytes += rowBytes;
+            usedBytes += rowBytes;
+        }
+        evictOverBudget();
+    }
+
+    public synchronized void invalidate(String tablePath) {
+        remove(tablePath);
+    }
+
+    public synchronized void invalidateDatabase(String databasePath) {
+        String prefix = databasePath + File.separator;
+        Iterator<Map.Entry<String, CachedTable>> entries = tables.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, CachedTable> entry = entries.next();
+            if (entry.getKey().startsWith(prefix)) {
+                usedBytes -= entry.getValue().bytes;
+                entries.remove();
+            }
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void remove(String tablePath) {
+        CachedTable removed = tables.remove(tablePath);
+        if (removed != null) {
+            usedBytes -= removed.bytes;
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<CachedTable> leastRecentlyUsed = tables.values().iterator();
+        while (usedBytes > memoryBudget && leastRecentlyUsed.hasNext()) {
+            usedBytes -= leastRecentlyUsed.next().bytes;
+            leastRecentlyUsed.remove();
+        }
+    }
+}
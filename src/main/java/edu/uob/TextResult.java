@@ -0,0 +1,61 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.io.Writer;
+
+// Writes results in the text protocol: [OK], the column names, then a line per row with the
+// values separated by tabs. Replies used to be built as strings and trimmed, so whitespace is
+// held back until something follows it, and whatever is left at the end is never written.
+public class TextResult implements ResultSink {
+    private final Writer out;
+    // JOIN has always put a tab after every value, the last one on a line included
+    private final boolean tabAfterEachValue;
+    private final StringBuilder heldWhitespace = new StringBuilder();
+
+    public TextResult(Writer out) {
+        this(out, false);
+    }
+
+    public TextResult(Writer out, boolean tabAfterEachValue) {
+        this.out = out;
+        this.tabAfterEachValue = tabAfterEachValue;
+    }
+
+    @Override
+    public void message(String reply) throws IOException {
+        write(reply);
+    }
+
+    @Override
+    public void columns(String[] names, ColumnType[] types) throws IOException {
+        write("[OK]");
+        writeLine(names);
+    }
+
+    @Override
+    public void row(String[] values) throws IOException {
+        writeLine(values);
+    }
+
+    private void writeLine(String[] values) throws IOException {
+        write("\n");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0 && !tabAfterEachValue) write("\t");
+            write(values[i]);
+            if (tabAfterEachValue) write("\t");
+        }
+    }
+
+    private void write(String text) throws IOException {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end > 0) {
+            out.append(heldWhitespace);
+            heldWhitespace.setLength(0);
+            out.write(text, 0, end);
+        }
+        heldWhitespace.append(text, end, text.length());
+    }
+}
@@ -7,5 +7,6 @@ public enum TokenType {
     OPERATOR,
     NUMBER,
     STRING,
-    LOGICAL_OPERATOR
+    LOGICAL_OPERATOR,
+    PARAMETER
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+package edu.uob;
+
+import java.util.List;
+
+// The values of an INTEGER or FLOAT column parsed once into primitives, so conditions and joins
+// compare numbers instead of reparsing the row strings. Rows whose value is not a number
+// (NULL, or text in an untyped id column) are marked in notNumeric and compared as text.
+public class TypedColumn {
+    final ColumnType type;
+    final long[] longs;
+    final double[] doubles;
+    final boolean[] notNumeric;
+
+    private TypedColumn(ColumnType type, int rowCount) {
+        this.type = type;
+        this.longs = type == ColumnType.INTEGER ? new long[rowCount] : null;
+        this.doubles = type == ColumnType.FLOAT ? new double[rowCount] : null;
+        this.notNumeric = new boolean[rowCount];
+    }
+
+    static TypedColumn build(List<String[]> rows, int column, ColumnType type) {
+        TypedColumn typed = new TypedColumn(type, rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            String value = column < row.length ? row[column].trim() : "";
+            // Parsed the same way NodeQueryCondition parses row values, so both give the same answers
+            double number = NodeQueryCondition.parseNumber(value, 0, value.length());
+            if (Double.isNaN(number) || (type == ColumnType.INTEGER && !ColumnType.isInteger(value))) {
+                typed.notNumeric[i] = true;
+            } else if (type == ColumnType.INTEGER) {
+                typed.longs[i] = Long.parseLong(value);
+            } else {
+                typed.doubles[i] = number;
+            }
+        }
+        return typed;
+    }
+
+    double numberAt(int row) {
+        return longs != null ? longs[row] : doubles[row];
+    }
+}
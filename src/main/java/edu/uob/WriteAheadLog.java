@@ -0,0 +1,397 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+// Redo log kept in each database folder as wal.log. Every change to a table file is first
+// appended here as a record [payload length][CRC32 of payload][payload] and forced to disk,
+// and only then applied. Replaying a record that was already applied is harmless.
+// Writers that commit while another is forcing the log are covered by the next force (group commit).
+public class WriteAheadLog {
+    private static final String FILE_NAME = "wal.log";
+    private static final byte WRITE_TABLE = 1;
+    private static final byte APPEND_TO_TABLE = 2;
+    private static final byte DELETE_TABLE = 3;
+    private static final byte REPLACE_TABLE = 4;
+    private static final byte ABANDON_REPLACE = 5;
+
+    private static final Map<Path, WriteAheadLog> OPEN_LOGS = new HashMap<>();
+    // Once the log is this large it is emptied as soon as no command is between logging and applying
+    private static long checkpointBytes = Long.getLong("db.wal.checkpointBytes", 4L * 1024 * 1024);
+
+    private final Path databaseFolder;
+    private final FileChannel channel;
+    private long writtenUpTo;
+    private long syncedUpTo;
+    private boolean syncing;
+    private int inFlight;
+    private final Set<Path> dirtyTables = new HashSet<>();
+    // Whether a rename was logged since the last checkpoint
+    private boolean renamedTables;
+
+    private WriteAheadLog(Path databaseFolder) throws IOException {
+        this.databaseFolder = databaseFolder;
+        this.channel = FileChannel.open(databaseFolder.resolve(FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.writtenUpTo = channel.size();
+        this.syncedUpTo = writtenUpTo;
+    }
+
+    public static synchronized WriteAheadLog forDatabase(Path databaseFolder) throws IOException {
+        WriteAheadLog log = OPEN_LOGS.get(databaseFolder);
+        if (log == null) {
+            log = new WriteAheadLog(databaseFolder);
+            OPEN_LOGS.put(databaseFolder, log);
+        }
+        return log;
+    }
+
+    public static synchronized void close(Path databaseFolder) {
+        WriteAheadLog log = OPEN_LOGS.remove(databaseFolder);
+        if (log == null) return;
+        try {
+            log.channel.close();
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to close log of database: " + databaseFolder.getFileName());
+        }
+    }
+
+    public static void setCheckpointBytes(long bytes) {
+        checkpointBytes = bytes;
+    }
+
+    // Each of these returns once the record is on disk; call applied() after changing the file
+    public void logWrite(String tableName, byte[] content) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(content.length + 32);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(WRITE_TABLE);
+        out.writeUTF(tableName);
+        out.writeInt(content.length);
+        out.write(content);
+        commit(payload.toByteArray());
+    }
+
+    public void logAppend(String tableName, long tableLengthBefore, byte[] content) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(content.length + 40);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(APPEND_TO_TABLE);
+        out.writeUTF(tableName);
+        out.writeLong(tableLengthBefore);
+        out.writeInt(content.length);
+        out.write(content);
+        commit(payload.toByteArray());
+    }
+
+    // The new contents are in a temp file next to the table, about to be renamed over it.
+    // Replaying checks the temp file is complete; without it the rename already happened.
+    public void logReplace(String tableName, String tempFileName, long length, long checksum) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(REPLACE_TABLE);
+        out.writeUTF(tableName);
+        out.writeUTF(tempFileName);
+        out.writeLong(length);
+        out.writeLong(checksum);
+        synchronized (this) {
+            renamedTables = true;
+        }
+        commit(payload.toByteArray());
+    }
+
+    // The rename logged for this temp file failed; replaying must neither redo it nor take the
+    // temp file's absence to mean it was renamed
+    public void logAbandonReplace(String tableName, String tempFileName) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(ABANDON_REPLACE);
+        out.writeUTF(tableName);
+        out.writeUTF(tempFileName);
+        commit(payload.toByteArray());
+    }
+
+    public void logDelete(String tableName) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(DELETE_TABLE);
+        out.writeUTF(tableName);
+        commit(payload.toByteArray());
+    }
+
+    private void commit(byte[] payload) throws IOException {
+        long position = append(payload);
+        try {
+            sync(position);
+        } catch (IOException e) {
+            applied(null);
+            throw e;
+        }
+    }
+
+    private synchronized long append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer frame = ByteBuffer.allocate(8 + payload.length);
+        frame.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+
+        long position = writtenUpTo;
+        while (frame.hasRemaining()) {
+            position += channel.write(frame, position);
+        }
+        writtenUpTo = position;
+        inFlight++;
+        return position;
+    }
+
+    // The first writer to find the log unsynced forces it on behalf of everyone who has
+    // appended so far; writers arriving meanwhile wait and are usually covered by that force
+    private void sync(long position) throws IOException {
+        long target;
+        synchronized (this) {
+            while (syncedUpTo < position && syncing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the log");
+                }
+            }
+            if (syncedUpTo >= position) return;
+            syncing = true;
+            target = writtenUpTo;
+        }
+
+        boolean synced = false;
+        try {
+            channel.force(false);
+            synced = true;
+        } finally {
+            synchronized (this) {
+                syncing = false;
+                if (synced) {
+                    syncedUpTo = Math.max(syncedUpTo, target);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    // tablePath is the file that was changed, or null if none was
+    public synchronized void applied(Path tablePath) {
+        inFlight--;
+        if (tablePath != null) {
+            dirtyTables.add(tablePath);
+        }
+        if (inFlight == 0 && writtenUpTo >= checkpointBytes) {
+            checkpoint();
+        }
+    }
+
+    // Forces the tables changed since the last checkpoint, and the folder if any was renamed
+    // over, so their records are no longer needed
+    private void checkpoint() {
+        try {
+            for (Path tablePath : dirtyTables) {
+                forceIfExists(tablePath);
+            }
+            if (renamedTables) {
+                forceDirectory(databaseFolder);
+                renamedTables = false;
+            }
+            channel.truncate(0);
+            channel.force(true);
+            dirtyTables.clear();
+            writtenUpTo = 0;
+            syncedUpTo = 0;
+        } catch (IOException e) {
+            System.err.println("[ERROR] Unable to checkpoint log of database: " + databaseFolder.getFileName());
+        }
+    }
+
+    // Redoes every complete record left in the log of a database, stopping at a torn or corrupt
+    // tail, and forces the tables it touched and their folder. The tail is cut off, so records
+    // committed from now on follow the last complete one. Returns the names of the tables; the
+    // complete records are kept until clear().
+    public static Set<String> replay(Path databaseFolder) throws IOException {
+        close(databaseFolder);
+        Set<String> tableNames = new LinkedHashSet<>();
+        Path logPath = databaseFolder.resolve(FILE_NAME);
+        if (!Files.exists(logPath) || Files.size(logPath) == 0) {
+            return tableNames;
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        long logLength = Files.size(logPath);
+        long validLength = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+            byte[] payload;
+            while ((payload = readRecord(in, logLength)) != null) {
+                records.add(payload);
+                validLength += 8 + payload.length;
+            }
+        }
+        if (validLength < logLength) {
+            try (FileChannel logChannel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                logChannel.truncate(validLength);
+                logChannel.force(true);
+            }
+        }
+
+        // Once a replacement file has been renamed over a table, the table already holds every
+        // earlier change to it, and those records no longer describe the file they would be applied to
+        Set<String> abandoned = new HashSet<>();
+        for (byte[] record : records) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            if (in.readByte() == ABANDON_REPLACE) {
+                in.readUTF();
+                abandoned.add(in.readUTF());
+            }
+        }
+        Map<String, Integer> firstRecordToRedo = new HashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(records.get(i)));
+            if (in.readByte() == REPLACE_TABLE) {
+                String tableName = in.readUTF();
+                String tempFileName = in.readUTF();
+                if (!abandoned.contains(tempFileName) && !Files.exists(databaseFolder.resolve(tempFileName))) {
+                    firstRecordToRedo.put(tableName, i + 1);
+                }
+            }
+        }
+        for (int i = 0; i < records.size(); i++) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(records.get(i)));
+            in.readByte();
+            String tableName = in.readUTF();
+            if (i >= firstRecordToRedo.getOrDefault(tableName, 0)) {
+                redo(databaseFolder, records.get(i), abandoned);
+            }
+            tableNames.add(tableName);
+        }
+        for (String tableName : tableNames) {
+            forceIfExists(tablePath(databaseFolder, tableName));
+        }
+        if (!records.isEmpty()) {
+            forceDirectory(databaseFolder);
+        }
+        return tableNames;
+    }
+
+    public static void clear(Path databaseFolder) throws IOException {
+        close(databaseFolder);
+        Path logPath = databaseFolder.resolve(FILE_NAME);
+        if (Files.exists(logPath)) {
+            try (FileChannel logChannel = FileChannel.open(logPath, StandardOpenOption.WRITE)) {
+                logChannel.truncate(0);
+                logChannel.force(true);
+            }
+        }
+    }
+
+    // Null at the end of the log, or where a crash left a partly written record
+    private static byte[] readRecord(DataInputStream in, long logLength) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length < 0 || length > logLength) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static String redo(Path databaseFolder, byte[] payload, Set<String> abandoned) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String tableName = in.readUTF();
+        Path tablePath = tablePath(databaseFolder, tableName);
+
+        if (type == WRITE_TABLE) {
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            Files.write(tablePath, content);
+        } else if (type == APPEND_TO_TABLE) {
+            long tableLengthBefore = in.readLong();
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            try (FileChannel table = FileChannel.open(tablePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Writing the same bytes at the same place again is harmless if they were already there
+                ByteBuffer buffer = ByteBuffer.wrap(content);
+                long position = Math.min(table.size(), tableLengthBefore);
+                while (buffer.hasRemaining()) {
+                    position += table.write(buffer, position);
+                }
+            }
+        } else if (type == REPLACE_TABLE) {
+            String tempFileName = in.readUTF();
+            Path tempPath = databaseFolder.resolve(tempFileName);
+            long length = in.readLong();
+            long checksum = in.readLong();
+            if (!abandoned.contains(tempFileName) && Files.exists(tempPath) && Files.size(tempPath) == length && checksumOf(tempPath) == checksum) {
+                Files.move(tempPath, tablePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } else if (type == DELETE_TABLE) {
+            Files.deleteIfExists(tablePath);
+        } else if (type == ABANDON_REPLACE) {
+            // Nothing to redo; replay() has already set aside the replace it names
+        } else {
+            throw new IOException("Unknown log record type " + type);
+        }
+        return tableName;
+    }
+
+    private static long checksumOf(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static Path tablePath(Path databaseFolder, String tableName) {
+        return databaseFolder.resolve(tableName + ".tab");
+    }
+
+    // Makes renames in the folder durable; not every platform can open a folder to force it
+    private static void forceDirectory(Path directory) {
+        try (FileChannel folder = FileChannel.open(directory, StandardOpenOption.READ)) {
+            folder.force(true);
+        } catch (IOException ignored) { }
+    }
+
+    private static void forceIfExists(Path tablePath) throws IOException {
+        if (!Files.exists(tablePath)) return;
+        try (FileChannel table = FileChannel.open(tablePath, StandardOpenOption.WRITE)) {
+            table.force(true);
+        }
+    }
+}
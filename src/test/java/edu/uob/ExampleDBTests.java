@@ -1,12 +1,39 @@
 package edu.uob;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.fail;
 import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 
 public class ExampleDBTests {
 
@@ -317,5 +344,1125 @@ public class ExampleDBTests {
         sendCommandToServer("DROP DATABASE " + dbName + ";");
     }
 
+    @Test
+    public void testJoinMatchesNumbersAndIgnoresCase() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+
+        sendCommandToServer("CREATE TABLE owners (name, pet);");
+        sendCommandToServer("INSERT INTO owners VALUES ('Alice', 'REX');");
+        sendCommandToServer("INSERT INTO owners VALUES ('Bob', 'Tom');");
+        sendCommandToServer("INSERT INTO owners VALUES ('Carol', 'rex');");
+
+        sendCommandToServer("CREATE TABLE pets (name, age);");
+        sendCommandToServer("INSERT INTO pets VALUES ('rex', 007);");
+
+        String response = sendCommandToServer("JOIN owners AND pets ON pet AND name;");
+        assertTrue(response.contains("Alice"), "String join values should match case-insensitively.");
+        assertTrue(response.contains("Carol"), "String join values should match case-insensitively.");
+        assertFalse(response.contains("Bob"), "Bob's pet should not match any row.");
+        assertTrue(response.indexOf("Alice") < response.indexOf("Carol"), "Joined rows should keep the order of the first table.");
+
+        sendCommandToServer("CREATE TABLE ages (years);");
+        sendCommandToServer("INSERT INTO ages VALUES (7);");
+        String numericResponse = sendCommandToServer("JOIN ages AND pets ON years AND age;");
+        assertTrue(numericResponse.contains("rex"), "Numeric join values should match by value.");
+
+        String reversed = sendCommandToServer("JOIN pets AND owners ON name AND pet;");
+        assertTrue(reversed.indexOf("Alice") < reversed.indexOf("Carol"), "Matches from the second table should keep their order.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testSortMergeJoinMatchesHashJoin() throws IOException {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+
+        sendCommandToServer("CREATE TABLE coursework (task, submission);");
+        sendCommandToServer("INSERT INTO coursework VALUES ('OXO', 3);");
+        sendCommandToServer("INSERT INTO coursework VALUES ('DB', 1);");
+        sendCommandToServer("INSERT INTO coursework VALUES ('STAG', 3);");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35);");
+
+        String hashResponse = sendCommandToServer("JOIN coursework AND marks ON submission AND id;");
+        String reversedHashResponse = sendCommandToServer("JOIN marks AND coursework ON id AND submission;");
+        JoinSortMerge.setMemoryBudget(0);
+        JoinSortMerge.setRunSize(1);
+        JoinSortMerge.setMergeFanIn(2);
+        try {
+            String sortMergeResponse = sendCommandToServer("JOIN coursework AND marks ON submission AND id;");
+            assertEquals(hashResponse, sortMergeResponse, "Sort-merge join should return the same rows in the same order as the hash join.");
+            assertEquals(reversedHashResponse, sendCommandToServer("JOIN marks AND coursework ON id AND submission;"),
+                    "Rows matching the same row of the first table should keep the second table's order.");
+        } finally {
+            JoinSortMerge.setMemoryBudget(Runtime.getRuntime().maxMemory() / 8);
+            JoinSortMerge.setRunSize(50_000);
+            JoinSortMerge.setMergeFanIn(64);
+        }
+        try (var files = Files.list(Paths.get("databases", dbName))) {
+            assertTrue(files.noneMatch(path -> path.toString().endsWith(".run")), "Spilled runs should be deleted.");
+        }
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testSessionsUseDifferentDatabases() {
+        String firstDb = generateRandomName();
+        String secondDb = generateRandomName();
+        DBSession firstSession = new DBSession();
+        DBSession secondSession = new DBSession();
+
+        server.handleCommand("CREATE DATABASE " + firstDb + ";", firstSession);
+        server.handleCommand("CREATE DATABASE " + secondDb + ";", secondSession);
+        server.handleCommand("USE " + firstDb + ";", firstSession);
+        server.handleCommand("USE " + secondDb + ";", secondSession);
+        server.handleCommand("CREATE TABLE people (name);", firstSession);
+        server.handleCommand("CREATE TABLE people (name);", secondSession);
+        server.handleCommand("INSERT INTO people VALUES ('Alice');", firstSession);
+        server.handleCommand("INSERT INTO people VALUES ('Bob');", secondSession);
+
+        String firstResponse = server.handleCommand("SELECT * FROM people;", firstSession);
+        String secondResponse = server.handleCommand("SELECT * FROM people;", secondSession);
+        assertTrue(firstResponse.contains("1\tAlice") && !firstResponse.contains("Bob"), "Each session should see its own database.");
+        assertTrue(secondResponse.contains("1\tBob") && !secondResponse.contains("Alice"), "Each session should see its own database.");
+
+        server.handleCommand("DROP DATABASE " + firstDb + ";", firstSession);
+        server.handleCommand("DROP DATABASE " + secondDb + ";", secondSession);
+    }
+
+    @Test
+    public void testConcurrentInsertsGetUniqueIds() throws InterruptedException {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE events (name);");
+
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            DBSession session = new DBSession();
+            server.handleCommand("USE " + dbName + ";", session);
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < 25; i++) {
+                    server.handleCommand("INSERT INTO events VALUES ('event');", session);
+                    server.handleCommand("SELECT * FROM events;", session);
+                    // USE reads, and may rebuild, the id index of every table
+                    server.handleCommand("USE " + dbName + ";", session);
+                }
+            }));
+        }
+        for (Thread writer : writers) writer.start();
+        for (Thread writer : writers) writer.join();
+
+        // USE waits for a table held by a write
+        LockManager.Locks locks = server.getLockManager().acquireTable(dbName, "events");
+        Thread user = new Thread(() -> server.handleCommand("USE " + dbName + ";", new DBSession()));
+        try {
+            user.start();
+            user.join(200);
+            assertTrue(user.isAlive(), "USE should not read a table's ids while it is locked.");
+        } finally {
+            locks.release();
+        }
+        user.join();
+
+        String response = sendCommandToServer("SELECT id FROM events;");
+        Set<String> ids = new HashSet<>(List.of(response.split("\n")));
+        assertEquals(102, ids.size(), "Every concurrent insert should get its own id ([OK], header and 100 ids).");
+        assertTrue(response.contains("\n100"), "Ids should be handed out without gaps.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testRepeatedSelectsAreServedFromCache() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        sendCommandToServer("SELECT * FROM marks;");
+
+        long hitsBefore = TableCache.getInstance().getHits();
+        sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(TableCache.getInstance().getHits() > hitsBefore, "A repeated SELECT should be answered from the table cache.");
+
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35);");
+        sendCommandToServer("UPDATE marks SET mark = 70 WHERE name == 'Simon';");
+        String response = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(response.contains("Rob") && response.contains("70"), "Writes should go through the cache.");
+
+        sendCommandToServer("ALTER TABLE marks ADD grade;");
+        assertTrue(sendCommandToServer("SELECT * FROM marks;").contains("grade"), "ALTER should invalidate the cached table.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testReorderedConditionsKeepTheirMeaning() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE people (name, age, city);");
+        sendCommandToServer("INSERT INTO people VALUES ('Alice', 30, 'Bristol');");
+        sendCommandToServer("INSERT INTO people VALUES ('Bob', 40, 'Bath');");
+        sendCommandToServer("INSERT INTO people VALUES ('Carol', 50, 'Bristol');");
+
+        String response = sendCommandToServer("SELECT name FROM people WHERE city LIKE 'bri' AND age > 20 AND name != 'Alice' AND missing == 1 OR age == 40;");
+        assertTrue(response.contains("Bob"), "The OR branch should still match Bob.");
+        assertFalse(response.contains("Carol"), "A condition on a missing column should never match.");
+
+        response = sendCommandToServer("SELECT name FROM people WHERE age >= 30 AND (city == 'bath' OR name LIKE 'car') AND age < 45;");
+        assertTrue(response.contains("Bob"), "Bob matches every condition.");
+        assertFalse(response.contains("Carol") || response.contains("Alice"), "Only Bob matches every condition.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testIdLookupsUseIndexAfterRestart() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20);");
+        sendCommandToServer("DELETE FROM marks WHERE id == 4;");
+
+        // Drop the cached copy so lookups have to go through the id index on disk
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        readWrite.evictDatabase();
+        server = new DBServer();
+        sendCommandToServer("USE " + dbName + ";");
+
+        String response = sendCommandToServer("SELECT name FROM marks WHERE id == 2;");
+        assertTrue(response.contains("Sion") && !response.contains("Simon"), "A point lookup should return only that row.");
+        response = sendCommandToServer("SELECT name FROM marks WHERE id >= 2 AND id < 3 OR id == 3;");
+        assertTrue(response.contains("Sion") && response.contains("Rob") && !response.contains("Simon"), "A range lookup should return the rows in range.");
+        assertTrue(sendCommandToServer("DELETE FROM marks WHERE id == 9;").contains("[OK]"), "Deleting a missing id should still succeed.");
+        assertTrue(sendCommandToServer("UPDATE marks SET ID = 7 WHERE id == 1;").contains("[ERROR]"), "The id column cannot be updated.");
 
-}
\ No newline at end of file
+        sendCommandToServer("INSERT INTO marks VALUES ('Dora', 80);");
+        response = sendCommandToServer("SELECT id FROM marks WHERE name == 'Dora';");
+        assertTrue(response.contains("5"), "Ids of deleted rows should not be reused after a restart.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testSecondaryIndexesStayUpToDate() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE people (email, age);");
+        sendCommandToServer("INSERT INTO people VALUES ('alice@uob.ac.uk', 30);");
+        sendCommandToServer("INSERT INTO people VALUES ('bob@uob.ac.uk', 40);");
+        assertTrue(sendCommandToServer("CREATE INDEX byEmail ON people (email);").contains("[OK]"), "Creating an index should succeed.");
+        assertTrue(sendCommandToServer("CREATE INDEX byAge ON people (age);").contains("[OK]"), "Creating an index should succeed.");
+        assertTrue(sendCommandToServer("CREATE INDEX byAge ON people (email);").contains("[ERROR]"), "Index names must be unique.");
+        assertTrue(sendCommandToServer("CREATE INDEX byMissing ON people (missing);").contains("[ERROR]"), "The indexed column must exist.");
+
+        sendCommandToServer("INSERT INTO people VALUES ('carol@uob.ac.uk', 050);");
+        sendCommandToServer("UPDATE people SET email = 'robert@uob.ac.uk' WHERE email == 'bob@uob.ac.uk';");
+        sendCommandToServer("DELETE FROM people WHERE age < 35;");
+
+        // Drop the cached copy so the next queries are answered through the indexes
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        readWrite.evictDatabase();
+
+        String response = sendCommandToServer("SELECT id FROM people WHERE email == 'ROBERT@uob.ac.uk';");
+        assertTrue(response.contains("2"), "An equality lookup should see updated values.");
+        assertFalse(sendCommandToServer("SELECT * FROM people WHERE email == 'bob@uob.ac.uk';").contains("bob"), "The index should not return old values.");
+        response = sendCommandToServer("SELECT email FROM people WHERE age >= 40 AND age <= 50;");
+        assertTrue(response.contains("robert") && response.contains("carol"), "A range lookup should match numerically.");
+        assertFalse(response.contains("alice"), "Deleted rows should not be returned.");
+
+        // Text keys fold the same way in every default locale, and indexes beyond the cache limit
+        // are dropped from memory and read back from their files
+        Locale defaultLocale = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+        SecondaryIndex.setCacheRows(1);
+        try {
+            sendCommandToServer("INSERT INTO people VALUES ('TITLE@uob.ac.uk', 60);");
+            readWrite.evictDatabase();
+            response = sendCommandToServer("SELECT age FROM people WHERE email == 'title@uob.ac.uk';");
+            assertTrue(response.contains("60"), "Indexed text should match ignoring case in any locale.");
+            assertTrue(sendCommandToServer("SELECT email FROM people WHERE age == 60;").contains("TITLE"), "Indexes should still answer queries once evicted.");
+            Path dbFolder = readWrite.getDatabaseFolder();
+            boolean emailCached = SecondaryIndex.isCached(SecondaryIndex.pathFor(dbFolder, "people", "byEmail"));
+            boolean ageCached = SecondaryIndex.isCached(SecondaryIndex.pathFor(dbFolder, "people", "byAge"));
+            assertTrue(emailCached != ageCached, "Only the index opened last should stay in memory.");
+        } finally {
+            Locale.setDefault(defaultLocale);
+            SecondaryIndex.setCacheRows(1_000_000);
+        }
+
+        sendCommandToServer("ALTER TABLE people DROP email;");
+        assertTrue(sendCommandToServer("DROP INDEX byEmail;").contains("[ERROR]"), "Dropping a column should drop its index.");
+        assertTrue(sendCommandToServer("DROP INDEX byAge;").contains("[OK]"), "Dropping an index should succeed.");
+        assertTrue(sendCommandToServer("SELECT * FROM people WHERE age > 45;").contains("50"), "Queries should still work without the index.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testLoggedChangesAreRecoveredOnRestart() throws IOException {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+
+        // Simulate a crash after a change was logged but before it reached the table file,
+        // with a partly written record after it
+        Path dbFolder = Paths.get("databases", dbName).toAbsolutePath();
+        String row = "2\tRob\t35" + System.lineSeparator();
+        WriteAheadLog.forDatabase(dbFolder).logAppend("marks", Files.size(dbFolder.resolve("marks.tab")),
+                row.getBytes(StandardCharsets.UTF_8));
+        Files.write(dbFolder.resolve("wal.log"), new byte[] {0, 0, 1, 0, 7}, StandardOpenOption.APPEND);
+
+        server = new DBServer();
+        assertEquals(0, Files.size(dbFolder.resolve("wal.log")), "Recovery should empty the log.");
+        sendCommandToServer("USE " + dbName + ";");
+        assertTrue(sendCommandToServer("SELECT name FROM marks WHERE id == 2;").contains("Rob"), "The logged insert should be replayed on startup.");
+        sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20);");
+        assertTrue(sendCommandToServer("SELECT id FROM marks WHERE name == 'Chris';").contains("3"), "Ids should continue after the recovered row.");
+
+        // A log holding nothing but a torn record is emptied too, so later commits can be replayed
+        Files.write(dbFolder.resolve("wal.log"), new byte[] {0, 0, 1, 0, 7, 9});
+        server = new DBServer();
+        assertEquals(0, Files.size(dbFolder.resolve("wal.log")), "Recovery should drop a torn record.");
+        String lateRow = "4\tDan\t50" + System.lineSeparator();
+        WriteAheadLog.forDatabase(dbFolder).logAppend("marks", Files.size(dbFolder.resolve("marks.tab")),
+                lateRow.getBytes(StandardCharsets.UTF_8));
+        server = new DBServer();
+        sendCommandToServer("USE " + dbName + ";");
+        assertTrue(sendCommandToServer("SELECT name FROM marks WHERE id == 4;").contains("Dan"), "A record committed after a torn one should be replayed.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testTableRewritesAreAtomic() throws IOException {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35);");
+        sendCommandToServer("UPDATE marks SET mark = 70 WHERE name == 'Simon';");
+        sendCommandToServer("DELETE FROM marks WHERE name == 'Rob';");
+
+        Path dbFolder = Paths.get("databases", dbName).toAbsolutePath();
+        try (var files = Files.list(dbFolder)) {
+            assertTrue(files.noneMatch(path -> path.toString().endsWith(".tmp")), "Rewrites should not leave temp files behind.");
+        }
+
+        // A rewrite that was logged but whose temp file never got completely written must be ignored
+        Path tempPath = dbFolder.resolve("marks-torn.tmp");
+        Files.writeString(tempPath, "id\tname\tmark\n1\tSim");
+        WriteAheadLog.forDatabase(dbFolder).logReplace("marks", tempPath.getFileName().toString(), 64, 0);
+
+        server = new DBServer();
+        assertFalse(Files.exists(tempPath), "Recovery should remove leftover temp files.");
+        sendCommandToServer("USE " + dbName + ";");
+        String response = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(response.contains("Simon") && response.contains("70") && !response.contains("Rob"), "The last complete version of the table should survive.");
+
+        // A rename that failed after being logged must not hide the changes logged before it
+        String row = "3\tChris\t20" + System.lineSeparator();
+        WriteAheadLog log = WriteAheadLog.forDatabase(dbFolder);
+        log.logAppend("marks", Files.size(dbFolder.resolve("marks.tab")), row.getBytes(StandardCharsets.UTF_8));
+        log.logReplace("marks", "marks-failed.tmp", 64, 0);
+        log.logAbandonReplace("marks", "marks-failed.tmp");
+
+        server = new DBServer();
+        sendCommandToServer("USE " + dbName + ";");
+        response = sendCommandToServer("SELECT * FROM marks;");
+        assertTrue(response.contains("Simon") && response.contains("Chris"), "Records before an abandoned rewrite should be replayed.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testSelectStreamsTablesTooLargeToCache() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE readings (sensor, reading);");
+        for (int i = 0; i < 50; i++) {
+            sendCommandToServer("INSERT INTO readings VALUES ('s" + (i % 5) + "', " + i + ");");
+        }
+        String cached = sendCommandToServer("SELECT sensor, reading FROM readings WHERE reading >= 10 AND sensor != 's3';");
+
+        // With no room in the cache the table is read line by line and written out as it goes
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        readWrite.evictDatabase();
+        TableCache.getInstance().setMemoryBudget(0);
+        try {
+            String streamed = sendCommandToServer("SELECT sensor, reading FROM readings WHERE reading >= 10 AND sensor != 's3';");
+            assertEquals(cached, streamed, "Streaming should not change the result.");
+            assertTrue(streamed.startsWith("[OK]\nsensor\treading\ns0\t10\n"), "Rows should follow the header in table order.");
+            assertFalse(streamed.endsWith("\n"), "The response should not end with an empty line.");
+            assertTrue(sendCommandToServer("SELECT missing FROM readings;").contains("[ERROR]"), "Errors should still be reported before any rows.");
+
+            // A client is only written to once the table is unlocked, here with the result spilled to disk
+            DBSession session = new DBSession();
+            server.handleCommand("USE " + dbName + ";", session);
+            boolean[] unlocked = {false};
+            StringWriter client = new StringWriter() {
+                @Override
+                public void write(String text, int offset, int length) {
+                    if (!unlocked[0]) {
+                        Thread writer = new Thread(() -> server.getLockManager().acquireTable(dbName, "readings").release());
+                        writer.start();
+                        try {
+                            writer.join(5000);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        unlocked[0] = !writer.isAlive();
+                    }
+                    super.write(text, offset, length);
+                }
+            };
+            ResultBuffer.setMemoryBytes(0);
+            server.handleCommand("SELECT sensor, reading FROM readings WHERE reading >= 10 AND sensor != 's3';", session, client);
+            assertTrue(unlocked[0], "The table should be unlocked before the client is written to.");
+            assertEquals(cached, client.toString(), "Buffering should not change the result.");
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            ResultBuffer.setMemoryBytes(4L * 1024 * 1024);
+            TableCache.getInstance().setMemoryBudget(Runtime.getRuntime().maxMemory() / 4);
+        }
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testMappedScanDecodesOnlyUsedColumns() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE books (title, author, pages);");
+        for (int i = 0; i < 20; i++) {
+            String title = i == 7 ? "A title much longer than one mapped window of the table file" : "Tïtle " + i;
+            sendCommandToServer("INSERT INTO books VALUES ('" + title + "', 'Author " + (i % 3) + "', " + (i * 10) + ");");
+        }
+        String cached = sendCommandToServer("SELECT title FROM books WHERE pages > 40 AND author == 'Author 1';");
+
+        // Windows smaller than some rows make the scanner grow them and carry rows across windows
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        readWrite.evictDatabase();
+        TableCache.getInstance().setMemoryBudget(0);
+        MappedTableScanner.setWindowBytes(16);
+        try {
+            String mapped = sendCommandToServer("SELECT title FROM books WHERE pages > 40 AND author == 'Author 1';");
+            assertEquals(cached, mapped, "The mapped scan should return the same rows as the cached table.");
+            assertTrue(mapped.contains("A title much longer"), "Rows longer than a window should be read whole.");
+            assertTrue(mapped.contains("Tïtle 10"), "Multi-byte characters should be decoded.");
+        } finally {
+            MappedTableScanner.setWindowBytes(64L * 1024 * 1024);
+            TableCache.getInstance().setMemoryBudget(Runtime.getRuntime().maxMemory() / 4);
+        }
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testColumnarTablesBehaveLikeTextTables() throws IOException {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        String[] tables = {"plain", "packed"};
+        sendCommandToServer("CREATE TABLE plain (name, team, score, pass);");
+        assertTrue(sendCommandToServer("CREATE TABLE packed (name, team, score, pass) COLUMNAR;").contains("[OK]"));
+        for (String table : tables) {
+            for (int i = 0; i < 12; i++) {
+                sendCommandToServer("INSERT INTO " + table + " VALUES ('Player " + i + "', 'team" + (i % 3) + "', "
+                        + (i * 1.5) + ", " + (i % 2 == 0 ? "TRUE" : "FALSE") + ");");
+            }
+            sendCommandToServer("UPDATE " + table + " SET team = 'captains' WHERE score > 12;");
+            sendCommandToServer("DELETE FROM " + table + " WHERE name == 'Player 3';");
+            sendCommandToServer("ALTER TABLE " + table + " ADD coach;");
+            sendCommandToServer("INSERT INTO " + table + " VALUES ('Late', 'team1', 2, TRUE, 'Ann');");
+        }
+        sendCommandToServer("CREATE INDEX packedteam ON packed (team);");
+
+        Path packedPath = Paths.get("databases", dbName, "packed.tab");
+        assertEquals(0, Files.readAllBytes(packedPath)[0], "A columnar table should be stored in binary.");
+
+        // Read both back from disk after a restart
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        readWrite.evictDatabase();
+        server = new DBServer();
+        sendCommandToServer("USE " + dbName + ";");
+        String[] queries = {"SELECT * FROM %s;", "SELECT name, coach FROM %s WHERE score >= 6;",
+                "SELECT name FROM %s WHERE id == 5;", "SELECT score FROM %s WHERE team == 'team1';",
+                "SELECT name FROM %s WHERE pass == FALSE AND score < 10;"};
+        for (String query : queries) {
+            String expected = sendCommandToServer(String.format(query, "plain"));
+            assertTrue(expected.startsWith("[OK]"), expected);
+            assertEquals(expected, sendCommandToServer(String.format(query, "packed")), "Columnar result differs for: " + query);
+        }
+        assertTrue(sendCommandToServer("SELECT * FROM packed;").contains("Late\tteam1\t2\tTRUE\tAnn"));
+        assertTrue(sendCommandToServer("SELECT coach FROM packed WHERE id == 1;").contains("NULL"), "NULL values should survive.");
+        assertEquals(14, sendCommandToServer("JOIN plain AND packed ON name AND name;").split("\n").length, "Every row should join with its copy.");
+
+        sendCommandToServer("INSERT INTO packed VALUES ('After restart', 'team2', 1, TRUE, 'Bo');");
+        assertTrue(sendCommandToServer("SELECT id FROM packed WHERE name == 'After restart';").contains("14"), "Ids should continue after a restart.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testColumnTypesAreDeclaredOrInferred() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        assertTrue(sendCommandToServer("CREATE TABLE items (name STRING, qty INTEGER, price, sale);").contains("[OK]"));
+        assertTrue(sendCommandToServer("INSERT INTO items VALUES ('Pen', 10, 1.5, TRUE);").contains("[OK]"));
+        sendCommandToServer("INSERT INTO items VALUES ('Ink', 007, 12, FALSE);");
+        sendCommandToServer("INSERT INTO items VALUES ('Pad', NULL, 0.25, TRUE);");
+
+        assertTrue(sendCommandToServer("INSERT INTO items VALUES ('Cup', 2.5, 3, TRUE);").contains("[ERROR]"), "A declared INTEGER column should reject a float.");
+        assertTrue(sendCommandToServer("INSERT INTO items VALUES ('Cup', 2, 'cheap', TRUE);").contains("[ERROR]"), "price was inferred as FLOAT from the first row.");
+        assertTrue(sendCommandToServer("INSERT INTO items VALUES ('Cup', 2, 3, 'maybe');").contains("[ERROR]"), "sale was inferred as BOOLEAN from the first row.");
+        assertTrue(sendCommandToServer("UPDATE items SET qty = 'lots' WHERE name == 'Pen';").contains("[ERROR]"), "UPDATE should check types too.");
+        assertEquals(ColumnType.STRING, ColumnType.inferFrom("+-5"), "A number has at most one sign.");
+        assertEquals(ColumnType.INTEGER, ColumnType.inferFrom("+5"));
+        assertFalse(ColumnType.FLOAT.accepts("+-1.5"));
+
+        // The types are kept in the table file, and survive a restart
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        readWrite.evictDatabase();
+        server = new DBServer();
+        sendCommandToServer("USE " + dbName + ";");
+        assertEquals(ColumnType.INTEGER, readWrite.readColumnTypes("items")[2]);
+        assertEquals(ColumnType.FLOAT, readWrite.readColumnTypes("items")[3]);
+        assertTrue(sendCommandToServer("INSERT INTO items VALUES ('Cup', 2.5, 3, TRUE);").contains("[ERROR]"));
+
+        String response = sendCommandToServer("SELECT name FROM items WHERE qty > 5 AND price < 20;");
+        assertTrue(response.contains("Pen") && response.contains("Ink") && !response.contains("Pad"), "Typed columns should compare as numbers.");
+        response = sendCommandToServer("SELECT name FROM items WHERE qty != 7;");
+        assertTrue(response.contains("Pen") && response.contains("Pad") && !response.contains("Ink"), "NULL should compare as text.");
+        sendCommandToServer("UPDATE items SET price = 2 WHERE price <= 1.5;");
+        assertTrue(sendCommandToServer("SELECT price FROM items WHERE name == 'Pad';").contains("2"));
+
+        sendCommandToServer("CREATE TABLE stock (qty INTEGER, shelf);");
+        sendCommandToServer("INSERT INTO stock VALUES (7, 'B2');");
+        response = sendCommandToServer("JOIN items AND stock ON qty AND qty;");
+        assertTrue(response.contains("Ink") && response.contains("B2") && !response.contains("Pen"), "Integer join keys should match by value.");
+
+        // Values with more than one sign are text, also as join keys
+        assertEquals("--7", JoinHashTable.joinKey("--7"));
+        assertEquals("-0-5", JoinHashTable.joinKey("-0-5"));
+        assertEquals("-7", JoinHashTable.joinKey("-007"));
+        sendCommandToServer("CREATE TABLE codes (code STRING, label);");
+        sendCommandToServer("INSERT INTO codes VALUES ('--7', 'dashes'), ('7', 'seven');");
+        response = sendCommandToServer("JOIN codes AND stock ON code AND qty;");
+        assertTrue(response.startsWith("[OK]") && response.contains("seven") && !response.contains("dashes"), response);
+
+        // Numbers with a plus sign are stored as written and compared and joined as numbers
+        sendCommandToServer("CREATE TABLE signed (n INTEGER, f FLOAT, label);");
+        assertTrue(sendCommandToServer("INSERT INTO signed VALUES (+5, +2.5, 'plus');").contains("[OK]"));
+        assertTrue(sendCommandToServer("SELECT label FROM signed WHERE n == 5;").contains("plus"), "+5 should equal 5.");
+        assertTrue(sendCommandToServer("SELECT label FROM signed WHERE n > 3 AND f < 3;").contains("plus"), "+5 should compare as a number.");
+        assertTrue(sendCommandToServer("SELECT n, f FROM signed;").contains("\n+5\t+2.5"), "Values should be stored as written.");
+        assertTrue(sendCommandToServer("SELECT label FROM signed WHERE n == +5;").contains("plus"), "+5 in a condition should be a number too.");
+        sendCommandToServer("UPDATE signed SET n = +7 WHERE label == 'plus';");
+        assertTrue(sendCommandToServer("JOIN signed AND stock ON n AND qty;").contains("plus"), "+7 should join 7.");
+
+        // Signed whole numbers join by value like unsigned ones always have, in text columns too
+        sendCommandToServer("INSERT INTO stock VALUES (-7, 'C3');");
+        sendCommandToServer("INSERT INTO codes VALUES ('-007', 'negative'), ('007', 'padded');");
+        response = sendCommandToServer("JOIN codes AND stock ON code AND qty;");
+        List<String> joined = List.of(response.split("\n"));
+        assertTrue(joined.stream().anyMatch(line -> line.contains("negative") && line.contains("C3")), "-007 should join -7.");
+        assertTrue(joined.stream().anyMatch(line -> line.contains("padded") && line.contains("B2")), "007 should join 7.");
+        assertFalse(joined.stream().anyMatch(line -> line.contains("negative") && line.contains("B2")), "Signs should not be ignored.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testParallelScanMatchesSequentialScan() {
+        String[] header = {"id", "name", "score"};
+        List<String[]> rows = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            rows.add(new String[]{Integer.toString(i + 1), "Name " + (i % 7), i % 11 == 0 ? "NULL" : Integer.toString(i % 100)});
+        }
+        Table table = new Table(header, new ColumnType[]{null, null, ColumnType.INTEGER}, rows);
+        NodeQuery condition = new NodeQueryLogical("OR",
+                new NodeQueryLogical("AND", new NodeQueryCondition("score", ">", "50"), new NodeQueryCondition("name", "LIKE", "'3'")),
+                new NodeQueryCondition("id", "<=", "10")).bind(header);
+
+        boolean[] sequential = condition.evaluateAll(table);
+        NodeQuery.setParallelThreshold(1);
+        try {
+            boolean[] parallel = condition.evaluateAll(table);
+            for (int i = 0; i < rows.size(); i++) {
+                assertEquals(condition.evaluate(rows.get(i)), sequential[i], "Row " + i + " should match as it does alone.");
+                assertEquals(sequential[i], parallel[i], "Row " + i + " should match the same way in the parallel scan.");
+            }
+        } finally {
+            NodeQuery.setParallelThreshold(100_000);
+        }
+
+        // Rows the left operand decides lack the column the right one reads, so evaluating
+        // the right operand on them would fail
+        String[] shortHeader = {"id", "score", "extra"};
+        List<String[]> shortRows = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            shortRows.add(i % 2 == 0 ? new String[]{Integer.toString(i + 1), "10"} : new String[]{Integer.toString(i + 1), "90", "x"});
+        }
+        Table shortTable = new Table(shortHeader, new ColumnType[]{null, ColumnType.INTEGER, null}, shortRows);
+        NodeQuery and = new NodeQueryLogical("AND", new NodeQueryCondition("score", ">", "50").bind(shortHeader),
+                new NodeQueryCondition("extra", "==", "'x'").bind(shortHeader));
+        NodeQuery or = new NodeQueryLogical("OR", new NodeQueryCondition("score", "<=", "50").bind(shortHeader),
+                new NodeQueryCondition("extra", "==", "'x'").bind(shortHeader));
+        boolean[] andMatches = and.evaluateAll(shortTable);
+        boolean[] orMatches = or.evaluateAll(shortTable);
+        for (int i = 0; i < shortRows.size(); i++) {
+            assertEquals(i % 2 == 1, andMatches[i], "AND should only evaluate its right operand where the left one matched.");
+            assertTrue(orMatches[i], "OR should only evaluate its right operand where the left one did not match.");
+        }
+    }
+
+    @Test
+    public void testParallelHashJoinKeepsRowOrder() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE orders (code, qty);");
+        sendCommandToServer("CREATE TABLE codes (code, label);");
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        List<String[]> orders = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            String code = i % 4 == 0 ? "Code" + (i % 50) : Integer.toString(i % 200);
+            orders.add(new String[]{Integer.toString(i + 1), code, Integer.toString(i)});
+        }
+        List<String[]> codes = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            String code = i % 3 == 0 ? "CODE" + (i % 60) : "00" + (i % 250);
+            codes.add(new String[]{Integer.toString(i + 1), code, "Label " + i});
+        }
+        readWrite.writeTable("orders", new Table(new String[]{"id", "code", "qty"}, orders));
+        readWrite.writeTable("codes", new Table(new String[]{"id", "code", "label"}, codes));
+
+        // Both join orders, so both the smaller and the larger table get to be the build side
+        String sequential = sendCommandToServer("JOIN orders AND codes ON code AND code;");
+        String reversed = sendCommandToServer("JOIN codes AND orders ON code AND code;");
+        CmdJoin.setParallelThreshold(1);
+        JoinHashTable.setRadixThreshold(1);
+        try {
+            assertEquals(sequential, sendCommandToServer("JOIN orders AND codes ON code AND code;"), "Parallel probing should not change the output.");
+            assertEquals(reversed, sendCommandToServer("JOIN codes AND orders ON code AND code;"), "Parallel probing should not change the output.");
+        } finally {
+            CmdJoin.setParallelThreshold(50_000);
+            JoinHashTable.setRadixThreshold(500_000);
+        }
+        assertTrue(sequential.split("\n").length > 1000, "The tables should share many keys.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testPreparedStatementsReuseCachedPlans() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        assertTrue(sendCommandToServer("PREPARE addMark AS INSERT INTO marks VALUES (?, ?, ?);").contains("[OK]"));
+        assertTrue(sendCommandToServer("EXECUTE addMark USING 'Simon', 65, TRUE;").contains("[OK]"));
+        assertTrue(sendCommandToServer("EXECUTE addMark USING 'Sion', 55, TRUE;").contains("[OK]"));
+        sendCommandToServer("EXECUTE addMark USING 'Rob', 35, FALSE;");
+        assertTrue(sendCommandToServer("EXECUTE addMark USING 'Chris';").contains("[ERROR]"), "Missing values should be rejected.");
+        assertTrue(sendCommandToServer("EXECUTE addMark USING 'Chris', 20, FALSE, 1;").contains("[ERROR]"), "Extra values should be rejected.");
+        assertTrue(sendCommandToServer("EXECUTE nothing;").contains("[ERROR]"), "Unknown statements should be rejected.");
+
+        sendCommandToServer("PREPARE between AS SELECT name FROM marks WHERE mark > ? AND (pass == ? OR name == '?');");
+        String response = sendCommandToServer("EXECUTE between USING 50, TRUE;");
+        assertTrue(response.contains("Simon") && response.contains("Sion") && !response.contains("Rob"));
+        response = sendCommandToServer("EXECUTE between USING 30, FALSE;");
+        assertTrue(response.contains("Rob") && !response.contains("Simon"), "Each execution should use its own values.");
+
+        sendCommandToServer("PREPARE setMark AS UPDATE marks SET mark = ? WHERE name == ?;");
+        sendCommandToServer("EXECUTE setMark USING 70, 'Rob';");
+        assertTrue(sendCommandToServer("SELECT mark FROM marks WHERE name == 'Rob';").contains("70"));
+        sendCommandToServer("PREPARE removeMark AS DELETE FROM marks WHERE name == ?;");
+        sendCommandToServer("EXECUTE removeMark USING 'Sion';");
+        assertFalse(sendCommandToServer("SELECT * FROM marks;").contains("Sion"));
+        assertTrue(sendCommandToServer("SELECT * FROM marks WHERE mark > ?;").contains("[ERROR]"), "Placeholders need values.");
+
+        // Statements sent again, even with different spacing, reuse the parsed command
+        PlanCache planCache = server.getPlanCache();
+        sendCommandToServer("SELECT name FROM marks WHERE mark >= 60;");
+        long hits = planCache.getHits();
+        response = sendCommandToServer("SELECT  name FROM marks   WHERE mark >= 60;");
+        assertEquals(hits + 1, planCache.getHits());
+        assertTrue(response.contains("Simon") && response.contains("Rob"));
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testScannerSplitsTokensWithoutSpaces() {
+        QueryScanner scanner = new QueryScanner("SELECT*FROM marks WHERE(mark>=60)and name!='Sim on'OR pass==-1.5;");
+        assertEquals(List.of("SELECT", "*", "FROM", "marks", "WHERE", "(", "mark", ">=", "60", ")", "and", "name",
+                "!=", "'Sim on'", "OR", "pass", "==", "-1.5", ";"), scanner.getTokens());
+        assertEquals(List.of(TokenType.KEYWORD, TokenType.SYMBOL, TokenType.KEYWORD, TokenType.IDENTIFIER,
+                TokenType.KEYWORD, TokenType.SYMBOL, TokenType.IDENTIFIER, TokenType.OPERATOR, TokenType.NUMBER,
+                TokenType.SYMBOL, TokenType.LOGICAL_OPERATOR, TokenType.IDENTIFIER, TokenType.OPERATOR,
+                TokenType.STRING, TokenType.LOGICAL_OPERATOR, TokenType.IDENTIFIER, TokenType.OPERATOR,
+                TokenType.NUMBER, TokenType.SYMBOL), scanner.getTokenTypes());
+
+        StringBuilder batch = new StringBuilder("INSERT INTO marks VALUES (");
+        int values = 0;
+        while (batch.length() < 100_000) {
+            batch.append("'Name ").append(values).append("', ").append(values).append(", TRUE, ");
+            values += 3;
+        }
+        batch.append("NULL);");
+        String query = batch.toString();
+        int expectedTokens = 5 + values * 2 + 3;
+        assertEquals(expectedTokens, new QueryScanner(query).getTokens().size(), "A 100 KB statement should be split into every value.");
+    }
+
+    @Test
+    public void testReservedWordsAreClassifiedInAnyCase() {
+        String[] keywords = {"USE", "SELECT", "FROM", "WHERE", "SET", "INSERT", "UPDATE", "DELETE", "CREATE", "DROP",
+                "TABLE", "DATABASE", "ALTER", "INTO", "VALUES", "ADD", "JOIN", "ON", "INDEX"};
+        for (String keyword : keywords) {
+            String mixedCase = keyword.charAt(0) + keyword.substring(1).toLowerCase();
+            assertEquals(List.of(TokenType.KEYWORD, TokenType.KEYWORD),
+                    new QueryScanner(keyword + " " + mixedCase).getTokenTypes(), keyword + " should be a keyword.");
+        }
+        assertEquals(List.of(TokenType.LOGICAL_OPERATOR, TokenType.LOGICAL_OPERATOR), new QueryScanner("and Or").getTokenTypes());
+        assertEquals(List.of(TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.IDENTIFIER, TokenType.NUMBER),
+                new QueryScanner("selects on_ orders ANDY 007").getTokenTypes(), "Words that only start like reserved words are names.");
+
+        // About half a million tokens, every statement split the same way
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 25_000; i++) {
+            query.append("SELECT name, mark FROM marks WHERE (mark >= ").append(i).append(" AND pass == TRUE) OR name LIKE 'x';\n");
+        }
+        assertEquals(25_000 * 21, new QueryScanner(query.toString()).getTokens().size());
+    }
+
+    @Test
+    public void testMultiRowInsertAndBulkLoad() throws IOException {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark INTEGER, pass);");
+        assertTrue(sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE), ('Sion', 55, TRUE),('Rob', 35, FALSE);").contains("[OK]"));
+        assertTrue(sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, FALSE), ('Bad', 'high', TRUE);").contains("[ERROR]"));
+        assertTrue(sendCommandToServer("INSERT INTO marks VALUES ('Chris', 20, FALSE), ('Short', 20);").contains("[ERROR]"));
+        assertFalse(sendCommandToServer("SELECT * FROM marks;").contains("Chris"), "A bad row should stop the whole INSERT.");
+        sendCommandToServer("PREPARE pair AS INSERT INTO marks VALUES (?, ?, TRUE), (?, ?, FALSE);");
+        sendCommandToServer("EXECUTE pair USING 'Ann', 70, 'Ben', 30;");
+        String response = sendCommandToServer("SELECT id, name FROM marks;");
+        assertTrue(response.contains("3\tRob") && response.contains("4\tAnn") && response.contains("5\tBen"), "Rows should get consecutive ids.");
+
+        Path importDirectory = Files.createTempDirectory("imports");
+        Path data = importDirectory.resolve("marks.tsv");
+        CmdLoad.setImportDirectory(importDirectory);
+        try {
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < 2500; i++) {
+                lines.append("Student ").append(i).append('\t').append(i % 100).append('\t').append(i % 2 == 0 ? "TRUE" : "FALSE").append('\n');
+            }
+            Files.writeString(data, lines.toString());
+            CmdLoad.setChunkRows(1000);
+            try {
+                assertTrue(sendCommandToServer("LOAD DATA FROM 'marks.tsv' INTO marks;").contains("[OK]"));
+            } finally {
+                CmdLoad.setChunkRows(100_000);
+            }
+            assertEquals(2507, sendCommandToServer("SELECT id FROM marks;").split("\n").length);
+            assertTrue(sendCommandToServer("SELECT id FROM marks WHERE name == 'Student 2499';").contains("2505"));
+            sendCommandToServer("INSERT INTO marks VALUES ('Late', 1, TRUE);");
+            assertTrue(sendCommandToServer("SELECT id FROM marks WHERE name == 'Late';").contains("2506"), "Ids should continue after a load.");
+
+            Files.writeString(data, "Good\t1\tTRUE\n\nWrong\tmany\tTRUE\n");
+            response = sendCommandToServer("LOAD DATA FROM 'marks.tsv' INTO marks;");
+            assertTrue(response.contains("[ERROR]") && response.contains("Line 3"), "Errors should name the line of the file.");
+            assertTrue(sendCommandToServer("LOAD DATA FROM 'no-such-file.tsv' INTO marks;").contains("[ERROR]"));
+
+            // Files outside the import directory cannot be read, whichever way they are named
+            Path outside = Files.writeString(importDirectory.resolveSibling(importDirectory.getFileName() + "-outside.tsv"), "Secret\t1\tTRUE\n");
+            try {
+                assertTrue(sendCommandToServer("LOAD DATA FROM '" + outside.toAbsolutePath() + "' INTO marks;").contains("[ERROR]"));
+                assertTrue(sendCommandToServer("LOAD DATA FROM '../" + outside.getFileName() + "' INTO marks;").contains("[ERROR]"));
+                assertFalse(sendCommandToServer("SELECT * FROM marks;").contains("Secret"), "Refused files should not be loaded.");
+            } finally {
+                Files.deleteIfExists(outside);
+            }
+        } finally {
+            CmdLoad.setImportDirectory(Paths.get("imports"));
+            Files.deleteIfExists(data);
+            Files.deleteIfExists(importDirectory);
+        }
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testPipelinedStatementsAndBatches() throws IOException {
+        String dbName = generateRandomName();
+        String script = String.join("\n",
+                "CREATE DATABASE " + dbName + ";",
+                "USE " + dbName + ";",
+                "CREATE TABLE pets (name, legs);",
+                "begin batch;",
+                "INSERT INTO pets VALUES ('Cat', 4);",
+                "INSERT INTO pets VALUES ('Bird');",
+                "INSERT INTO pets VALUES ('Bird', 2);",
+                "SELECT name FROM pets WHERE legs < 3;",
+                "END BATCH;",
+                "SELECT * FROM pets;",
+                "DROP DATABASE " + dbName + ";") + "\n";
+        int[] flushes = {0};
+        StringWriter replies = new StringWriter() {
+            @Override
+            public void flush() {
+                flushes[0]++;
+            }
+        };
+        server.serveConnection(new BufferedReader(new StringReader(script)), replies, new DBSession());
+
+        // One reply per statement outside the batch and one for the whole batch, in order
+        String[] parts = replies.toString().split("\n" + (char) 4 + "\n");
+        assertEquals(6, parts.length);
+        assertTrue(parts[2].contains("[OK]"));
+        String[] batchResults = parts[3].split("\n" + DBServer.STATEMENT_SEPARATOR + "\n");
+        assertEquals(4, batchResults.length, "Each statement in a batch should get its own separated result.");
+        assertEquals("[OK]", batchResults[0].trim());
+        assertTrue(batchResults[1].startsWith("[ERROR]"), "Each statement in a batch should report its own result.");
+        assertEquals("[OK]", batchResults[2].trim());
+        assertTrue(batchResults[3].startsWith("[OK]\nname"), "Results should come back in statement order.");
+        assertTrue(batchResults[3].endsWith("Bird"), "Results should come back in statement order.");
+        assertTrue(parts[4].contains("Cat") && parts[4].contains("Bird"), "Statements after a failing one should still run.");
+        assertEquals(1, flushes[0], "Statements that were already waiting should be answered in one flush.");
+    }
+
+    @Test
+    public void testClientReadsRepliesWhileSendingStatements() throws Exception {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE notes (text);");
+        String text = "x".repeat(200);
+        for (int i = 0; i < 50; i++) {
+            sendCommandToServer("INSERT INTO notes VALUES ('" + text + "');");
+        }
+
+        // Far more reply bytes than the socket buffers hold, sent as one pipelined script
+        StringBuilder script = new StringBuilder("USE " + dbName + ";\n");
+        for (int i = 0; i < 2000; i++) {
+            script.append("SELECT * FROM notes;\n");
+        }
+        script.append("BEGIN BATCH;\nSELECT id FROM notes WHERE id == 1;\nSELECT id FROM notes WHERE id == 2;\nEND BATCH;\n");
+
+        try (ServerSocket listener = new ServerSocket(0);
+             Socket socket = new Socket("localhost", listener.getLocalPort());
+             Socket connection = listener.accept();
+             Socket otherSocket = new Socket("localhost", listener.getLocalPort());
+             Socket otherConnection = listener.accept()) {
+            Thread serving = serveTextConnection(connection);
+            Thread otherServing = serveTextConnection(otherConnection);
+
+            DBClient client = DBClient.forTextProtocol(new BufferedReader(new InputStreamReader(socket.getInputStream())),
+                    new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())));
+            ByteArrayOutputStream printed = new ByteArrayOutputStream();
+            client.handleNextCommand(new BufferedReader(new StringReader(script.toString())),
+                    new PrintStream(printed, true, StandardCharsets.UTF_8));
+
+            String output = printed.toString(StandardCharsets.UTF_8);
+            assertEquals(2003, output.split("\\[OK]", -1).length - 1, "Every statement should get its reply, batched ones included.");
+            assertTrue(output.endsWith("[OK]\nid\n1\n\n[OK]\nid\n2" + System.lineSeparator()), "Batch results should be printed apart.");
+
+            // A batch left open on one connection must not hold back the replies of another
+            client.handleNextCommand(new BufferedReader(new StringReader("BEGIN BATCH;\n")),
+                    new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+            DBClient otherClient = DBClient.forTextProtocol(new BufferedReader(new InputStreamReader(otherSocket.getInputStream())),
+                    new BufferedWriter(new OutputStreamWriter(otherSocket.getOutputStream())));
+            ByteArrayOutputStream otherPrinted = new ByteArrayOutputStream();
+            otherClient.handleNextCommand(new BufferedReader(new StringReader("USE " + dbName + ";\nSELECT id FROM notes WHERE id == 3;\n")),
+                    new PrintStream(otherPrinted, true, StandardCharsets.UTF_8));
+            assertTrue(otherPrinted.toString(StandardCharsets.UTF_8).endsWith("[OK]\nid\n3" + System.lineSeparator()),
+                    "Another connection should not be inside the first one's batch.");
+
+            socket.shutdownOutput();
+            otherSocket.shutdownOutput();
+            serving.join();
+            otherServing.join();
+        }
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    private Thread serveTextConnection(Socket connection) {
+        Thread serving = new Thread(() -> {
+            try {
+                server.serveConnection(new BufferedReader(new InputStreamReader(connection.getInputStream())),
+                        new BufferedWriter(new OutputStreamWriter(connection.getOutputStream())), new DBSession());
+            } catch (IOException e) {
+                // The client closed the connection
+            }
+        });
+        serving.start();
+        return serving;
+    }
+
+    @Test
+    public void testBinaryProtocolReturnsTypedResults() throws Exception {
+        DBBinaryServer binaryServer = new DBBinaryServer(server, 4);
+        DBBinaryServer.setMaxQueued(2);
+        int port = binaryServer.bind(0);
+        Thread listener = new Thread(() -> {
+            try {
+                binaryServer.serve();
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        listener.start();
+        String dbName = generateRandomName();
+        try (Socket socket = new Socket("localhost", port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            // Sent together before reading any reply; statements may span lines
+            String[] statements = {"CREATE DATABASE " + dbName + ";", "USE " + dbName + ";",
+                    "CREATE TABLE items (name, qty, price, sale, code STRING);",
+                    "INSERT INTO items\nVALUES ('Pen case', 10, 1.5, TRUE, '007'), ('Ink', NULL, 12, FALSE, '1.50');",
+                    "CREATE TABLE shelves (item INTEGER, shelf);", "INSERT INTO shelves VALUES (2, 'B');",
+                    "SELECT * FROM items;", "JOIN items AND shelves ON id AND item;", "SELECT * FROM missing;"};
+            for (String statement : statements) {
+                BinaryProtocol.writeRequest(out, statement);
+            }
+            out.flush();
+
+            for (int i = 0; i < 6; i++) {
+                BinaryProtocol.Reply reply = BinaryProtocol.readReply(in);
+                assertTrue(reply.ok, "Statement " + i + " should succeed: " + reply.message);
+                assertEquals(0, reply.columnNames.length);
+            }
+            BinaryProtocol.Reply select = BinaryProtocol.readReply(in);
+            assertTrue(select.ok);
+            assertEquals(List.of("id", "name", "qty", "price", "sale", "code"), List.of(select.columnNames));
+            assertEquals(List.of(ColumnType.INTEGER, ColumnType.STRING, ColumnType.INTEGER, ColumnType.FLOAT, ColumnType.BOOLEAN, ColumnType.STRING),
+                    List.of(select.columnTypes));
+            assertEquals(2, select.rows.size());
+            assertEquals(10L, select.rows.get(0)[2]);
+            assertEquals(1.5, select.rows.get(0)[3]);
+            assertEquals(Boolean.TRUE, select.rows.get(0)[4]);
+            assertEquals(12.0, select.rows.get(1)[3], "Values should take the type of their column.");
+            assertEquals(null, select.rows.get(1)[2], "NULL should come back as null.");
+            assertEquals("007", select.rows.get(0)[5], "STRING values should come back unchanged.");
+            assertEquals("1.50", select.rows.get(1)[5]);
+
+            BinaryProtocol.Reply join = BinaryProtocol.readReply(in);
+            assertTrue(join.ok);
+            assertEquals(List.of("id", "items.name", "items.qty", "items.price", "items.sale", "items.code", "shelves.id", "shelves.shelf"),
+                    List.of(join.columnNames));
+            assertEquals(ColumnType.INTEGER, join.columnTypes[6]);
+            assertEquals(ColumnType.STRING, join.columnTypes[7], "Untyped columns should be sent as STRING.");
+            assertEquals(1, join.rows.size());
+            assertEquals("Ink", join.rows.get(0)[1]);
+            assertEquals("B", join.rows.get(0)[7]);
+            assertFalse(BinaryProtocol.readReply(in).ok);
+
+            // A frame larger than the server's initial buffer, then more frames than it queues at once
+            StringBuilder insert = new StringBuilder("INSERT INTO items VALUES ");
+            for (int i = 0; i < 3000; i++) {
+                insert.append(i > 0 ? ", " : "").append("('Item ").append(i).append("', ").append(i).append(", 1.0, TRUE, 'c')");
+            }
+            BinaryProtocol.writeRequest(out, insert.append(";").toString());
+            for (int i = 0; i < 40; i++) {
+                BinaryProtocol.writeRequest(out, "SELECT id FROM items WHERE qty == " + (100 + i) + ";");
+            }
+            out.flush();
+            assertTrue(BinaryProtocol.readReply(in).ok, "Large frames should be read.");
+            for (int i = 0; i < 40; i++) {
+                assertEquals(1, BinaryProtocol.readReply(in).rows.size(), "Every queued statement should be answered in order.");
+            }
+
+            // A result larger than one frame comes in several, sent as the client reads them
+            BinaryProtocol.writeRequest(out, "SELECT * FROM items;");
+            BinaryProtocol.writeRequest(out, "SELECT name FROM items WHERE id == 1;");
+            out.flush();
+            BinaryProtocol.Reply all = BinaryProtocol.readReply(in);
+            assertEquals(3002, all.rows.size(), "Every row should arrive across the row frames.");
+            assertEquals("Item 2999", all.rows.get(3001)[1]);
+            assertEquals("Pen case", BinaryProtocol.readReply(in).rows.get(0)[0], "The next reply should follow the last row frame.");
+        }
+
+        // The client sends a statement once its semicolon arrives, however many lines it spans
+        try (Socket socket = new Socket("localhost", port)) {
+            DBClient client = DBClient.forBinaryProtocol(new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+                    new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())));
+            ByteArrayOutputStream printed = new ByteArrayOutputStream();
+            PrintStream printer = new PrintStream(printed, true, StandardCharsets.UTF_8);
+            client.handleNextBinaryCommand(new BufferedReader(new StringReader(
+                    "USE " + dbName + ";\nSELECT name FROM items\n  WHERE name == 'Ink;'\n;\n\nSELECT name\n")), printer);
+            assertEquals("SQL:> [OK]" + System.lineSeparator() + "[OK]\nname:STRING" + System.lineSeparator(), printed.toString(StandardCharsets.UTF_8),
+                    "Each statement should get one reply, and an unfinished one none yet.");
+            printed.reset();
+            client.handleNextBinaryCommand(new BufferedReader(new StringReader("FROM items WHERE id == 2;\n")), printer);
+            assertEquals("  -> [OK]\nname:STRING\nInk" + System.lineSeparator(),
+                    printed.toString(StandardCharsets.UTF_8), "The next lines should finish the statement.");
+            assertFalse(DBClient.isEndOfStatement("SELECT * FROM items WHERE name == 'a;"), "A quoted semicolon should not end a statement.");
+        }
+
+        // A failure after some rows were sent ends the reply with the error
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        BinaryProtocol.ReplyWriter writer = new BinaryProtocol.ReplyWriter(frame -> frames.write(frame.array()));
+        writer.columns(new String[] {"n"}, new ColumnType[] {ColumnType.INTEGER});
+        for (int i = 0; i < 20_000; i++) {
+            writer.row(new String[] {String.valueOf(i)});
+        }
+        writer.fail("Disk full");
+        BinaryProtocol.Reply failed = BinaryProtocol.readReply(new DataInputStream(new ByteArrayInputStream(frames.toByteArray())));
+        assertFalse(failed.ok);
+        assertEquals("Disk full", failed.message);
+        try (Socket socket = new Socket("localhost", port)) {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeInt(1 << 30);
+            out.flush();
+            assertEquals(-1, socket.getInputStream().read(), "Oversized frames should close the connection.");
+        } finally {
+            DBBinaryServer.setMaxQueued(32);
+            binaryServer.stop();
+            listener.join(5000);
+            sendCommandToServer("DROP DATABASE " + dbName + ";");
+        }
+    }
+
+    @Test
+    public void testAppendsKeepIdsAndIndexesConsistent() throws IOException {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE big (name, team);");
+        StringBuilder insert = new StringBuilder("INSERT INTO big VALUES ");
+        for (int i = 1; i <= 3000; i++) {
+            insert.append(i > 1 ? ", " : "").append("('Early ").append(i).append("', 'team").append(i % 10).append("')");
+        }
+        assertTrue(sendCommandToServer(insert.append(";").toString()).contains("[OK]"));
+        assertTrue(sendCommandToServer("CREATE INDEX byTeam ON big (team);").contains("[OK]"));
+
+        ReadWrite.setSyncTableFiles(true);
+        try {
+            for (int i = 1; i <= 20; i++) {
+                assertTrue(sendCommandToServer("INSERT INTO big VALUES ('Late " + i + "', 'late');").contains("[OK]"));
+            }
+            assertTrue(sendCommandToServer("INSERT INTO big VALUES ('Late 21', 'late'), ('Late 22', 'late');").contains("[OK]"));
+        } finally {
+            ReadWrite.setSyncTableFiles(false);
+        }
+        assertTrue(sendCommandToServer("SELECT name FROM big WHERE id == 3022;").contains("Late 22"), "Appended rows should be found by id.");
+        assertEquals(22, sendCommandToServer("SELECT id FROM big WHERE team == 'late';").split("\n").length - 2,
+                "Appended rows should be found through the index.");
+
+        List<String> lines = Files.readAllLines(Paths.get("databases", dbName, "big.tab"));
+        assertEquals(3023, lines.size(), "Every row should be appended once, after the header.");
+        assertTrue(lines.get(3022).startsWith("3022\t"), "Appended rows should take the next ids in order.");
+
+        // Ids and indexes still agree with the table once it is read back from disk
+        server = new DBServer();
+        sendCommandToServer("USE " + dbName + ";");
+        assertTrue(sendCommandToServer("INSERT INTO big VALUES ('Later', 'late');").contains("[OK]"));
+        assertTrue(sendCommandToServer("SELECT name FROM big WHERE id == 3023;").contains("Later"), "Ids should carry on after a restart.");
+        assertTrue(sendCommandToServer("SELECT name FROM big WHERE id == 1500;").contains("Early 1500"));
+        String late = sendCommandToServer("SELECT id FROM big WHERE team == 'late';");
+        assertEquals(23, late.split("\n").length - 2);
+        assertTrue(late.contains("3001") && late.contains("3023"));
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testReadTablesAreNotChangedByLaterWrites() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, mark, pass);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 65, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 55, TRUE);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 35, FALSE);");
+
+        ReadWrite readWrite = new ReadWrite();
+        readWrite.setCurrentDatabase(dbName);
+        Table before = readWrite.readTable("marks");
+        assertEquals(List.of("id", "name", "mark", "pass"), List.of(before.getHeader()));
+        assertEquals(List.of("2", "Sion", "55", "TRUE"), List.of(before.getRows().get(1)));
+
+        // Rows are shared with the table cache, so writes must build new ones
+        assertTrue(sendCommandToServer("UPDATE marks SET mark = 70 WHERE name == 'Simon';").contains("[OK]"));
+        assertTrue(sendCommandToServer("DELETE FROM marks WHERE name == 'Rob';").contains("[OK]"));
+        assertTrue(sendCommandToServer("ALTER TABLE marks ADD grade;").contains("[OK]"));
+        assertEquals(List.of("id", "name", "mark", "pass"), List.of(before.getHeader()), "A table already read should keep its header.");
+        assertEquals(3, before.getRowCount(), "A table already read should keep its rows.");
+        assertEquals(List.of("1", "Simon", "65", "TRUE"), List.of(before.getRows().get(0)), "Rows already read should not change.");
+
+        Table after = readWrite.readTable("marks");
+        assertEquals(List.of("id", "name", "mark", "pass", "grade"), List.of(after.getHeader()));
+        assertEquals(2, after.getRowCount());
+        assertEquals("70", after.getRows().get(0)[2]);
+        assertEquals(5, after.getRows().get(1).length, "Every row should have a value for the new column.");
+        assertTrue(sendCommandToServer("SELECT * FROM marks WHERE name == 'Sion';").contains("2\tSion\t55\tTRUE"));
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+
+    @Test
+    public void testCachedConditionsAreBoundAfterAlter() {
+        String dbName = generateRandomName();
+        sendCommandToServer("CREATE DATABASE " + dbName + ";");
+        sendCommandToServer("USE " + dbName + ";");
+        sendCommandToServer("CREATE TABLE marks (name, bonus, mark);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Simon', 90, 65);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Sion', 10, 55);");
+        sendCommandToServer("INSERT INTO marks VALUES ('Rob', 80, 35);");
+
+        String query = "SELECT name FROM marks WHERE mark > 50;";
+        String beforeAlter = sendCommandToServer(query);
+        assertTrue(beforeAlter.contains("Simon") && beforeAlter.contains("Sion") && !beforeAlter.contains("Rob"));
+        assertTrue(sendCommandToServer("PREPARE byGrade AS SELECT name FROM marks WHERE grade == ?;").contains("[OK]"));
+
+        // mark moves one column to the left, so the cached plan must find it again
+        long hits = server.getPlanCache().getHits();
+        assertTrue(sendCommandToServer("ALTER TABLE marks DROP bonus;").contains("[OK]"));
+        String afterDrop = sendCommandToServer(query);
+        assertTrue(server.getPlanCache().getHits() > hits, "The statement should reuse its cached plan.");
+        assertEquals(beforeAlter, afterDrop, "The condition should read mark from its new column.");
+        assertTrue(sendCommandToServer("UPDATE marks SET mark = 20 WHERE mark > 60;").contains("[OK]"));
+        String afterUpdate = sendCommandToServer(query);
+        assertTrue(afterUpdate.contains("Sion") && !afterUpdate.contains("Simon"));
+
+        // A column added after the statement was prepared is found when it runs
+        assertTrue(sendCommandToServer("ALTER TABLE marks ADD grade;").contains("[OK]"));
+        assertTrue(sendCommandToServer("UPDATE marks SET grade = 'A' WHERE name == 'Rob';").contains("[OK]"));
+        String graded = sendCommandToServer("EXECUTE byGrade USING 'A';");
+        assertTrue(graded.contains("Rob") && !graded.contains("Sion"), "The prepared condition should read the new column.");
+
+        sendCommandToServer("DROP DATABASE " + dbName + ";");
+    }
+}